@@ -0,0 +1,74 @@
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compiles many source files on a pool of worker threads.
+ *
+ * Every file gets its own lexer, parser, TypeChecker and Compiler, which
+ * share no state, and its own output buffers. The output of the files is
+ * printed in the order they were given, once each of them is done.
+ */
+public class BatchCompiler {
+
+    public static int compileAll(List<String> paths, Options opts,
+                                 Path dir, PrintStream out, PrintStream err) {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(opts.jobs, paths.size()));
+        List<Future<Result>> results = new ArrayList<>();
+        for (String path: paths) {
+            results.add(pool.submit(() -> compileOne(path, opts, dir)));
+        }
+        pool.shutdown();
+
+        int status = 0;
+        for (int i = 0; i < paths.size(); i++) {
+            Result r;
+            try {
+                r = results.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                err.println(paths.get(i) + ": interrupted");
+                return 1;
+            } catch (ExecutionException e) {
+                r = new Result(1, "", e.getCause().toString() + "\n");
+            }
+
+            out.print(r.out);
+            out.flush();
+            // every diagnostic line says which file it is about
+            for (String line: r.err.split("\n")) {
+                if (!line.isEmpty()) err.println(paths.get(i) + ": " + line);
+            }
+            if (status == 0) status = r.status;
+        }
+        return status;
+    }
+
+    private static Result compileOne(String path, Options opts, Path dir)
+            throws UnsupportedEncodingException {
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        PrintStream pout = new PrintStream(stdout, true, "UTF-8");
+        PrintStream perr = new PrintStream(stderr, true, "UTF-8");
+        int status = lab3.compile(path, opts, dir, null, pout, perr);
+        return new Result(status, stdout.toString("UTF-8"), stderr.toString("UTF-8"));
+    }
+
+    static class Result {
+        final int status;
+        final String out;
+        final String err;
+        Result(int status, String out, String err) {
+            this.status = status;
+            this.out = out;
+            this.err = err;
+        }
+    }
+}
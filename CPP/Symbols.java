@@ -0,0 +1,59 @@
+package CPP;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The identifiers of one compilation, each with a dense int id.
+ *
+ * The lexer interns every identifier here, so all occurrences of a name
+ * in the syntax tree are the same String, and tables keyed by name can
+ * compare them by reference and index arrays by the id. Names made up
+ * later, by the passes or for the built-in functions, get an id the
+ * first time they are asked for.
+ *
+ * Functions are compiled on several threads, so looking up a name takes
+ * no lock, and only giving a new id does.
+ */
+public final class Symbols {
+
+    private final ConcurrentHashMap<String,Integer> ids = new ConcurrentHashMap<>();
+    private String[] names = new String[64];
+    private volatile int size = 0;
+
+    /**the canonical instance of name*/
+    public String intern (String name) {
+        Integer id = ids.get(name);
+        return id != null ? name(id) : name(add(name));
+    }
+
+    /**the id of name, a new one if it has none yet*/
+    public int id (String name) {
+        Integer id = ids.get(name);
+        return id != null ? id : add(name);
+    }
+
+    private synchronized int add (String name) {
+        Integer id = ids.get(name);
+        if (id != null) return id;
+        if (size == names.length) names = Arrays.copyOf(names, size * 2);
+        names[size] = name;
+        ids.put(name, size);
+        return size++;
+    }
+
+    /**the id of name, or -1 if it has none*/
+    public int find (String name) {
+        Integer id = ids.get(name);
+        return id == null ? -1 : id;
+    }
+
+    public synchronized String name (int id) {
+        return names[id];
+    }
+
+    /**number of ids given, every id is below it*/
+    public int size () {
+        return size;
+    }
+}
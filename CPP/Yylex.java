@@ -15,6 +15,9 @@ public class Yylex implements java_cup.runtime.Scanner {
 	private final int YY_EOF = 65537;
 
   String pstring = new String();
+  private final Symbols symbols = new Symbols();
+  /** the identifiers read so far, each one interned there */
+  public Symbols symbols() { return symbols; }
   public int line_num() { return (yyline+1); }
   public String buff() {return new String(yy_buffer,yy_buffer_index,10).trim();}
 	private java.io.BufferedReader yy_reader;
@@ -392,59 +395,59 @@ public class Yylex implements java_cup.runtime.Scanner {
 					case -2:
 						break;
 					case 2:
-						{ return new Symbol(sym._SYMB_0); }
+						{ return new Symbol(sym._SYMB_0, yyline+1, yyline+1); }
 					case -3:
 						break;
 					case 3:
-						{ return new Symbol(sym._SYMB_1); }
+						{ return new Symbol(sym._SYMB_1, yyline+1, yyline+1); }
 					case -4:
 						break;
 					case 4:
-						{ return new Symbol(sym._SYMB_2); }
+						{ return new Symbol(sym._SYMB_2, yyline+1, yyline+1); }
 					case -5:
 						break;
 					case 5:
-						{ return new Symbol(sym._SYMB_3); }
+						{ return new Symbol(sym._SYMB_3, yyline+1, yyline+1); }
 					case -6:
 						break;
 					case 6:
-						{ return new Symbol(sym._SYMB_4); }
+						{ return new Symbol(sym._SYMB_4, yyline+1, yyline+1); }
 					case -7:
 						break;
 					case 7:
-						{ return new Symbol(sym._SYMB_5); }
+						{ return new Symbol(sym._SYMB_5, yyline+1, yyline+1); }
 					case -8:
 						break;
 					case 8:
-						{ return new Symbol(sym._SYMB_6); }
+						{ return new Symbol(sym._SYMB_6, yyline+1, yyline+1); }
 					case -9:
 						break;
 					case 9:
-						{ return new Symbol(sym._SYMB_11); }
+						{ return new Symbol(sym._SYMB_11, yyline+1, yyline+1); }
 					case -10:
 						break;
 					case 10:
-						{ return new Symbol(sym._SYMB_12); }
+						{ return new Symbol(sym._SYMB_12, yyline+1, yyline+1); }
 					case -11:
 						break;
 					case 11:
-						{ return new Symbol(sym._SYMB_9); }
+						{ return new Symbol(sym._SYMB_9, yyline+1, yyline+1); }
 					case -12:
 						break;
 					case 12:
-						{ return new Symbol(sym._SYMB_10); }
+						{ return new Symbol(sym._SYMB_10, yyline+1, yyline+1); }
 					case -13:
 						break;
 					case 13:
-						{ return new Symbol(sym._SYMB_13); }
+						{ return new Symbol(sym._SYMB_13, yyline+1, yyline+1); }
 					case -14:
 						break;
 					case 14:
-						{ return new Symbol(sym._SYMB_14); }
+						{ return new Symbol(sym._SYMB_14, yyline+1, yyline+1); }
 					case -15:
 						break;
 					case 15:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -16:
 						break;
 					case 16:
@@ -452,19 +455,19 @@ public class Yylex implements java_cup.runtime.Scanner {
 					case -17:
 						break;
 					case 17:
-						{ return new Symbol(sym._INTEGER_, new Integer(yytext())); }
+						{ return new Symbol(sym._INTEGER_, yyline+1, yyline+1, new Integer(yytext())); }
 					case -18:
 						break;
 					case 18:
-						{ return new Symbol(sym._SYMB_17); }
+						{ return new Symbol(sym._SYMB_17, yyline+1, yyline+1); }
 					case -19:
 						break;
 					case 19:
-						{ return new Symbol(sym._SYMB_7); }
+						{ return new Symbol(sym._SYMB_7, yyline+1, yyline+1); }
 					case -20:
 						break;
 					case 20:
-						{ return new Symbol(sym._SYMB_8); }
+						{ return new Symbol(sym._SYMB_8, yyline+1, yyline+1); }
 					case -21:
 						break;
 					case 21:
@@ -472,27 +475,27 @@ public class Yylex implements java_cup.runtime.Scanner {
 					case -22:
 						break;
 					case 22:
-						{ return new Symbol(sym._SYMB_15); }
+						{ return new Symbol(sym._SYMB_15, yyline+1, yyline+1); }
 					case -23:
 						break;
 					case 23:
-						{ return new Symbol(sym._SYMB_16); }
+						{ return new Symbol(sym._SYMB_16, yyline+1, yyline+1); }
 					case -24:
 						break;
 					case 24:
-						{ return new Symbol(sym._SYMB_18); }
+						{ return new Symbol(sym._SYMB_18, yyline+1, yyline+1); }
 					case -25:
 						break;
 					case 25:
-						{ return new Symbol(sym._SYMB_19); }
+						{ return new Symbol(sym._SYMB_19, yyline+1, yyline+1); }
 					case -26:
 						break;
 					case 26:
-						{ return new Symbol(sym._SYMB_20); }
+						{ return new Symbol(sym._SYMB_20, yyline+1, yyline+1); }
 					case -27:
 						break;
 					case 27:
-						{ return new Symbol(sym._SYMB_25); }
+						{ return new Symbol(sym._SYMB_25, yyline+1, yyline+1); }
 					case -28:
 						break;
 					case 28:
@@ -504,43 +507,43 @@ public class Yylex implements java_cup.runtime.Scanner {
 					case -30:
 						break;
 					case 30:
-						{ return new Symbol(sym._SYMB_26); }
+						{ return new Symbol(sym._SYMB_26, yyline+1, yyline+1); }
 					case -31:
 						break;
 					case 31:
-						{ return new Symbol(sym._DOUBLE_, new Double(yytext())); }
+						{ return new Symbol(sym._DOUBLE_, yyline+1, yyline+1, new Double(yytext())); }
 					case -32:
 						break;
 					case 32:
-						{ return new Symbol(sym._SYMB_21); }
+						{ return new Symbol(sym._SYMB_21, yyline+1, yyline+1); }
 					case -33:
 						break;
 					case 33:
-						{ return new Symbol(sym._SYMB_23); }
+						{ return new Symbol(sym._SYMB_23, yyline+1, yyline+1); }
 					case -34:
 						break;
 					case 34:
-						{ return new Symbol(sym._SYMB_28); }
+						{ return new Symbol(sym._SYMB_28, yyline+1, yyline+1); }
 					case -35:
 						break;
 					case 35:
-						{ return new Symbol(sym._SYMB_29); }
+						{ return new Symbol(sym._SYMB_29, yyline+1, yyline+1); }
 					case -36:
 						break;
 					case 36:
-						{ return new Symbol(sym._SYMB_24); }
+						{ return new Symbol(sym._SYMB_24, yyline+1, yyline+1); }
 					case -37:
 						break;
 					case 37:
-						{ return new Symbol(sym._SYMB_30); }
+						{ return new Symbol(sym._SYMB_30, yyline+1, yyline+1); }
 					case -38:
 						break;
 					case 38:
-						{ return new Symbol(sym._SYMB_22); }
+						{ return new Symbol(sym._SYMB_22, yyline+1, yyline+1); }
 					case -39:
 						break;
 					case 39:
-						{ return new Symbol(sym._SYMB_27); }
+						{ return new Symbol(sym._SYMB_27, yyline+1, yyline+1); }
 					case -40:
 						break;
 					case 40:
@@ -556,11 +559,11 @@ public class Yylex implements java_cup.runtime.Scanner {
 					case -43:
 						break;
 					case 44:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -44:
 						break;
 					case 45:
-						{ return new Symbol(sym._DOUBLE_, new Double(yytext())); }
+						{ return new Symbol(sym._DOUBLE_, yyline+1, yyline+1, new Double(yytext())); }
 					case -45:
 						break;
 					case 46:
@@ -568,131 +571,131 @@ public class Yylex implements java_cup.runtime.Scanner {
 					case -46:
 						break;
 					case 48:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -47:
 						break;
 					case 50:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -48:
 						break;
 					case 52:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -49:
 						break;
 					case 54:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -50:
 						break;
 					case 56:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -51:
 						break;
 					case 58:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -52:
 						break;
 					case 60:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -53:
 						break;
 					case 62:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -54:
 						break;
 					case 64:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -55:
 						break;
 					case 65:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -56:
 						break;
 					case 66:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -57:
 						break;
 					case 67:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -58:
 						break;
 					case 68:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -59:
 						break;
 					case 69:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -60:
 						break;
 					case 70:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -61:
 						break;
 					case 71:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -62:
 						break;
 					case 72:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -63:
 						break;
 					case 73:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -64:
 						break;
 					case 74:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -65:
 						break;
 					case 75:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -66:
 						break;
 					case 76:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -67:
 						break;
 					case 77:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -68:
 						break;
 					case 78:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -69:
 						break;
 					case 79:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -70:
 						break;
 					case 80:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -71:
 						break;
 					case 81:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -72:
 						break;
 					case 82:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -73:
 						break;
 					case 83:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -74:
 						break;
 					case 84:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -75:
 						break;
 					case 85:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -76:
 						break;
 					case 86:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -77:
 						break;
 					case 87:
-						{ return new Symbol(sym.Id, yytext().intern()); }
+						{ return new Symbol(sym.Id, yyline+1, yyline+1, symbols.intern(yytext())); }
 					case -78:
 						break;
 					default:
@@ -374,6 +374,19 @@ public void syntax_error(java_cup.runtime.Symbol cur_token)
 	report_error("Syntax Error, trying to recover and continue parse...", cur_token);
 }
 
+/* where syntax errors are reported, the error output of the compilation */
+public java.io.PrintStream errors = System.err;
+
+public void report_error(String message, Object info)
+{
+	/* the lexer gives tokens their line, not their character offset */
+	errors.print(message);
+	if (info instanceof java_cup.runtime.Symbol && ((java_cup.runtime.Symbol) info).left > 0)
+		errors.println(" at line " + ((java_cup.runtime.Symbol) info).left);
+	else
+		errors.println();
+}
+
 public void unrecovered_syntax_error(java_cup.runtime.Symbol cur_token) throws java.lang.Exception
 {
 	throw new Exception("Unrecoverable Syntax Error");
@@ -0,0 +1,503 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assembles a JVM .class file directly from the compiled instructions,
+ * so we don't need to write a .j file and start jasmin.jar for it.
+ */
+public class ClassFile {
+
+    // class file version 49.0 (Java 5), the last one that does not
+    // require StackMapTable frames for methods with branches
+    private static final int MAJOR_VERSION = 49;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_SUPER  = 0x0020;
+
+    private final String className;
+    private final ConstantPool pool = new ConstantPool();
+    private final List<MethodInfo> methods = new ArrayList<>();
+
+    public ClassFile(String className) {
+        this.className = className;
+    }
+
+    public void addMethod(MethodInfo m) {
+        methods.add(m);
+    }
+
+    public byte[] toByteArray() {
+        try {
+            // constant pool entries are created while assembling the methods,
+            // so the methods have to be written out before the pool
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(body);
+
+            int thisClass = pool.classRef(className);
+            int superClass = pool.classRef("java/lang/Object");
+
+            out.writeShort(ACC_PUBLIC | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+
+            out.writeShort(methods.size() + 1);
+            writeConstructor(out);
+            for (MethodInfo m: methods) {
+                writeMethod(out, m);
+            }
+            out.writeShort(0); // class attributes
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream file = new DataOutputStream(bytes);
+            file.writeInt(0xCAFEBABE);
+            file.writeShort(0);
+            file.writeShort(MAJOR_VERSION);
+            pool.write(file);
+            body.writeTo(file);
+            file.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            // cannot happen when writing to a byte array
+            throw new RuntimeException(e);
+        }
+    }
+
+    // public <init>()V { aload_0; invokespecial java/lang/Object/<init>()V; return }
+    private void writeConstructor(DataOutputStream out) throws IOException {
+        int init = pool.methodRef("java/lang/Object", "<init>", "()V");
+        byte[] code = new byte[] {
+            0x2a,                                           // aload_0
+            (byte) 0xb7, (byte) (init >> 8), (byte) init,   // invokespecial
+            (byte) 0xb1                                     // return
+        };
+        writeMethod(out, ACC_PUBLIC, "<init>", "()V", 1, 1, code);
+    }
+
+    private void writeMethod(DataOutputStream out, MethodInfo m) throws IOException {
+        CodeToBytes asm = new CodeToBytes(pool, className);
+        for (int i = 0; i < m.code.size(); i++) {
+            asm.instruction(m.code, i);
+        }
+        writeMethod(out, ACC_PUBLIC | ACC_STATIC, m.name, m.descriptor,
+                m.maxStack, m.maxLocals, asm.toByteArray());
+    }
+
+    private void writeMethod(DataOutputStream out, int access, String name, String descriptor,
+                             int maxStack, int maxLocals, byte[] code) throws IOException {
+        out.writeShort(access);
+        out.writeShort(pool.utf8(name));
+        out.writeShort(pool.utf8(descriptor));
+        out.writeShort(1);
+
+        // Code attribute
+        out.writeShort(pool.utf8("Code"));
+        out.writeInt(2 + 2 + 4 + code.length + 2 + 2);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // code attributes
+    }
+}
+
+
+
+/**
+ * A static method of the generated class, as produced by the Compiler.
+ */
+class MethodInfo {
+    public String name;
+    public String descriptor;
+    public int maxStack;
+    public int maxLocals;
+    public CodeBuffer code;
+    public MethodInfo (String name, String descriptor, int maxStack, int maxLocals, CodeBuffer code) {
+        this.name = name;
+        this.descriptor = descriptor;
+        this.maxStack = maxStack;
+        this.maxLocals = maxLocals;
+        this.code = code;
+    }
+}
+
+
+
+class ConstantPool {
+
+    private static final int CONSTANT_Utf8        = 1;
+    private static final int CONSTANT_Integer     = 3;
+    private static final int CONSTANT_Double      = 6;
+    private static final int CONSTANT_Class       = 7;
+    private static final int CONSTANT_Methodref   = 10;
+    private static final int CONSTANT_NameAndType = 12;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(bytes);
+
+    // entries already in the pool, keyed by tag and contents
+    private final Map<String,Integer> entries = new HashMap<>();
+
+    // index of the next entry; the pool is 1-based
+    private int next = 1;
+
+    public int utf8 (String s) {
+        String key = CONSTANT_Utf8 + ":" + s;
+        Integer index = entries.get(key);
+        if (index != null) return index;
+        try {
+            out.writeByte(CONSTANT_Utf8);
+            out.writeUTF(s);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return add(key, 1);
+    }
+
+    public int integer (int i) {
+        String key = CONSTANT_Integer + ":" + i;
+        Integer index = entries.get(key);
+        if (index != null) return index;
+        try {
+            out.writeByte(CONSTANT_Integer);
+            out.writeInt(i);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return add(key, 1);
+    }
+
+    public int doubleConst (double d) {
+        long bits = Double.doubleToRawLongBits(d);
+        String key = CONSTANT_Double + ":" + bits;
+        Integer index = entries.get(key);
+        if (index != null) return index;
+        try {
+            out.writeByte(CONSTANT_Double);
+            out.writeLong(bits);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        // doubles take up two entries in the pool
+        return add(key, 2);
+    }
+
+    public int classRef (String name) {
+        String key = CONSTANT_Class + ":" + name;
+        Integer index = entries.get(key);
+        if (index != null) return index;
+        int nameIndex = utf8(name);
+        try {
+            out.writeByte(CONSTANT_Class);
+            out.writeShort(nameIndex);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return add(key, 1);
+    }
+
+    public int methodRef (String owner, String name, String descriptor) {
+        String key = CONSTANT_Methodref + ":" + owner + "/" + name + descriptor;
+        Integer index = entries.get(key);
+        if (index != null) return index;
+        int classIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int typeIndex = utf8(descriptor);
+        int nameAndType;
+        String ntKey = CONSTANT_NameAndType + ":" + name + descriptor;
+        Integer nt = entries.get(ntKey);
+        try {
+            if (nt == null) {
+                out.writeByte(CONSTANT_NameAndType);
+                out.writeShort(nameIndex);
+                out.writeShort(typeIndex);
+                nameAndType = add(ntKey, 1);
+            } else {
+                nameAndType = nt;
+            }
+            out.writeByte(CONSTANT_Methodref);
+            out.writeShort(classIndex);
+            out.writeShort(nameAndType);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return add(key, 1);
+    }
+
+    public void write (DataOutputStream file) throws IOException {
+        if (next > 0xffff)
+            throw new RuntimeException("too many constants in class file");
+        file.writeShort(next);
+        bytes.writeTo(file);
+    }
+
+    private int add (String key, int size) {
+        int index = next;
+        entries.put(key, index);
+        next += size;
+        return index;
+    }
+}
+
+
+
+/**
+ * Translates the instructions of one method into JVM bytecode,
+ * the binary counterpart of CodeToJVM.
+ */
+class CodeToBytes {
+
+    private final ConstantPool pool;
+    private final String className;
+
+    private byte[] code = new byte[64];
+    private int length = 0;
+
+    // bytecode offset of every label seen so far, -1 if not placed yet
+    private int[] labels = new int[0];
+
+    // branches whose target was not known when they were emitted,
+    // as pairs of bytecode offset and label number
+    private int[] fixups = new int[16];
+    private int fixupCount = 0;
+
+    public CodeToBytes (ConstantPool pool, String className) {
+        this.pool = pool;
+        this.className = className;
+    }
+
+    public byte[] toByteArray () {
+        // resolve the branch offsets now that all labels are placed
+        for (int f = 0; f < fixupCount; f += 2) {
+            int opcodeAt = fixups[f];
+            int label = fixups[f + 1];
+            int target = labelOffset(label);
+            if (target < 0)
+                throw new RuntimeException("undefined label L" + label);
+            int offset = target - opcodeAt;
+            if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+                throw new RuntimeException("branch to L" + label + " is too far");
+            code[opcodeAt + 1] = (byte) (offset >> 8);
+            code[opcodeAt + 2] = (byte) offset;
+        }
+        if (length > 65535)
+            throw new RuntimeException("method code too large");
+        byte[] result = new byte[length];
+        System.arraycopy(code, 0, result, 0, length);
+        return result;
+    }
+
+    public void instruction (CodeBuffer c, int i) {
+        int type = c.type(i);
+        int n = c.operand(i);
+        boolean isDouble = type == CodeBuffer.DOUBLE;
+        switch (c.op(i)) {
+            case CodeBuffer.STORE:
+                if (isDouble) local(0x39, 0x47, n);
+                else local(0x36, 0x3b, n);
+                break;
+            case CodeBuffer.LOAD:
+                if (isDouble) local(0x18, 0x26, n);
+                else local(0x15, 0x1a, n);
+                break;
+            case CodeBuffer.ICONST:
+                if (n >= -1 && n <= 5) {
+                    u1(0x03 + n);                   // iconst_m1 .. iconst_5
+                } else if (n >= -128 && n < 128) {
+                    u1(0x10); u1(n);                // bipush
+                } else if (n >= Short.MIN_VALUE && n <= Short.MAX_VALUE) {
+                    u1(0x11); u2(n);                // sipush
+                } else {
+                    ldc(pool.integer(n));
+                }
+                break;
+            case CodeBuffer.DCONST:
+                double d = c.doubleConst(i);
+                if (Double.doubleToRawLongBits(d) == 0L) {
+                    u1(0x0e);                       // dconst_0
+                } else if (d == 1.0) {
+                    u1(0x0f);                       // dconst_1
+                } else {
+                    u1(0x14); u2(pool.doubleConst(d)); // ldc2_w
+                }
+                break;
+            case CodeBuffer.DUP:
+                u1(isDouble ? 0x5c : 0x59);
+                break;
+            case CodeBuffer.POP:
+                u1(isDouble ? 0x58 : 0x57);
+                break;
+            case CodeBuffer.RETURN:
+                if (type == CodeBuffer.INT || type == CodeBuffer.BOOL) {
+                    u1(0xac);                       // ireturn
+                } else if (isDouble) {
+                    u1(0xaf);                       // dreturn
+                } else {
+                    u1(0xb1);                       // return
+                }
+                break;
+            case CodeBuffer.CALL:
+                Fun fun = c.fun(i);
+                String owner = c.isBuiltin(i) ? "Runtime" : className;
+                u1(0xb8);                           // invokestatic
+                u2(pool.methodRef(owner, fun.id, fun.funType.toJVM()));
+                break;
+            case CodeBuffer.LABEL:
+                placeLabel(n);
+                break;
+            case CodeBuffer.GOTO:
+                branch(0xa7, n);
+                break;
+            case CodeBuffer.IFZ:
+                branch(0x99, n);                    // ifeq
+                break;
+            case CodeBuffer.IFNZ:
+                branch(0x9a, n);                    // ifne
+                break;
+            case CodeBuffer.IFEQ:
+                // same as CodeToJVM: for booleans this jumps when the value is not 0
+                if (type == CodeBuffer.BOOL) branch(0x9a, n);
+                else if (isDouble) branch(0x99, n); // ifeq
+                else branch(0x9f, n);               // if_icmpeq
+                break;
+            case CodeBuffer.IFNE:
+                // same as CodeToJVM: for booleans this jumps when the value is 0
+                if (type == CodeBuffer.BOOL) branch(0x99, n);
+                else if (isDouble) branch(0x9a, n); // ifne
+                else branch(0xa0, n);               // if_icmpne
+                break;
+            // for doubles, the result of dcmpg/dcmpl is compared with 0
+            case CodeBuffer.IFLT:
+                branch(isDouble ? 0x9b : 0xa1, n);  // iflt, if_icmplt
+                break;
+            case CodeBuffer.IFGT:
+                branch(isDouble ? 0x9d : 0xa3, n);  // ifgt, if_icmpgt
+                break;
+            case CodeBuffer.IFLE:
+                branch(isDouble ? 0x9e : 0xa4, n);  // ifle, if_icmple
+                break;
+            case CodeBuffer.IFGE:
+                branch(isDouble ? 0x9c : 0xa2, n);  // ifge, if_icmpge
+                break;
+            case CodeBuffer.DGT:
+                u1(0x98);                           // dcmpg
+                break;
+            case CodeBuffer.DLT:
+                u1(0x97);                           // dcmpl
+                break;
+            case CodeBuffer.INC:
+                int delta = c.operand2(i);
+                if (n <= 0xff && delta >= -128 && delta < 128) {
+                    u1(0x84); u1(n); u1(delta);
+                } else {
+                    u1(0xc4); u1(0x84); u2(n); u2(delta); // wide iinc
+                }
+                break;
+            case CodeBuffer.ADD:
+                u1(isDouble ? 0x63 : 0x60);
+                break;
+            case CodeBuffer.SUB:
+                u1(isDouble ? 0x67 : 0x64);
+                break;
+            case CodeBuffer.MUL:
+                u1(isDouble ? 0x6b : 0x68);
+                break;
+            case CodeBuffer.DIV:
+                u1(isDouble ? 0x6f : 0x6c);
+                break;
+            case CodeBuffer.NEG:
+                u1(isDouble ? 0x77 : 0x74);
+                break;
+            case CodeBuffer.SHL:
+                u1(0x78);                       // ishl
+                break;
+            case CodeBuffer.SHR:
+                u1(0x7a);                       // ishr
+                break;
+            case CodeBuffer.USHR:
+                u1(0x7c);                       // iushr
+                break;
+            case CodeBuffer.I2D:
+                u1(0x87);                       // i2d
+                break;
+            default:
+                throw new RuntimeException("unknown instruction " + c.op(i));
+        }
+    }
+
+    // xload/xstore, using the short form for the first four slots
+    private void local (int opcode, int shortOpcode, int addr) {
+        if (addr <= 3) {
+            u1(shortOpcode + addr);
+        } else if (addr <= 0xff) {
+            u1(opcode); u1(addr);
+        } else {
+            u1(0xc4); u1(opcode); u2(addr); // wide
+        }
+    }
+
+    private void ldc (int index) {
+        if (index <= 0xff) {
+            u1(0x12); u1(index);            // ldc
+        } else {
+            u1(0x13); u2(index);            // ldc_w
+        }
+    }
+
+    private int labelOffset (int label) {
+        return label < labels.length ? labels[label] : -1;
+    }
+
+    private void placeLabel (int label) {
+        if (label >= labels.length) {
+            int[] bigger = new int[Math.max(label + 1, labels.length * 2)];
+            Arrays.fill(bigger, -1);
+            System.arraycopy(labels, 0, bigger, 0, labels.length);
+            labels = bigger;
+        }
+        labels[label] = length;
+    }
+
+    private void branch (int opcode, int label) {
+        int target = labelOffset(label);
+        if (target >= 0) {
+            // backward jump, offset is known already
+            int offset = target - length;
+            if (offset < Short.MIN_VALUE)
+                throw new RuntimeException("branch to L" + label + " is too far");
+            u1(opcode); u2(offset);
+        } else {
+            if (fixupCount == fixups.length) {
+                int[] bigger = new int[fixups.length * 2];
+                System.arraycopy(fixups, 0, bigger, 0, fixupCount);
+                fixups = bigger;
+            }
+            fixups[fixupCount++] = length;
+            fixups[fixupCount++] = label;
+            u1(opcode); u2(0);
+        }
+    }
+
+    private void u1 (int b) {
+        if (length == code.length) {
+            byte[] bigger = new byte[code.length * 2];
+            System.arraycopy(code, 0, bigger, 0, length);
+            code = bigger;
+        }
+        code[length++] = (byte) b;
+    }
+
+    private void u2 (int s) {
+        u1(s >> 8);
+        u1(s);
+    }
+}
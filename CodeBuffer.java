@@ -0,0 +1,332 @@
+import CPP.Absyn.Type;
+import CPP.Absyn.Type_bool;
+import CPP.Absyn.Type_double;
+import CPP.Absyn.Type_int;
+
+/**
+ * The instructions of one method, packed into a primitive int array.
+ *
+ * Every instruction takes three ints: the opcode together with a type
+ * tag, and two operands. Instructions are addressed by their index, and
+ * the backends walk them with a plain loop and a switch on op(i), so no
+ * object is allocated per instruction and nothing is boxed.
+ *
+ *   STORE, LOAD      operand: address of the local
+ *   ICONST           operand: the value
+ *   DCONST           operand, operand2: high and low bits of the value
+ *   CALL             operand: index of the function, operand2: 1 for Runtime functions
+ *   LABEL            operand: label number
+ *   GOTO, IF..       operand: label number of the target
+ *   INC              operand: address of the local, operand2: the increment
+ *
+ * The type tag says which JVM instruction is meant, like iload or dload.
+ * IFEQ..IFGE with INT compare two ints; with BOOL (IFEQ and IFNE only)
+ * they test a boolean, and with DOUBLE they test the int that DGT (dcmpg)
+ * or DLT (dcmpl) left against 0.
+ */
+final class CodeBuffer {
+
+    // Opcodes
+    public static final int STORE  = 0;
+    public static final int LOAD   = 1;
+    public static final int ICONST = 2;
+    public static final int DCONST = 3;
+    public static final int DUP    = 4;
+    public static final int POP    = 5;
+    public static final int RETURN = 6;
+    public static final int CALL   = 7;
+    public static final int LABEL  = 8;
+    public static final int GOTO   = 9;
+    public static final int IFZ    = 10;
+    public static final int IFNZ   = 11;
+    public static final int IFEQ   = 12;
+    public static final int IFNE   = 13;
+    public static final int IFLT   = 14;
+    public static final int IFGT   = 15;
+    public static final int IFLE   = 16;
+    public static final int IFGE   = 17;
+    public static final int DGT    = 18;
+    public static final int DLT    = 19;
+    public static final int INC    = 20;
+    public static final int ADD    = 21;
+    public static final int SUB    = 22;
+    public static final int MUL    = 23;
+    public static final int DIV    = 24;
+    public static final int NEG    = 25;
+    public static final int SHL    = 26;
+    public static final int SHR    = 27;
+    public static final int USHR   = 28;
+    public static final int I2D    = 29;
+
+    // Type tags
+    public static final int VOID   = 0;
+    public static final int INT    = 1;
+    public static final int BOOL   = 2;
+    public static final int DOUBLE = 3;
+
+    private int[] code = new int[3 * 64];
+    private int size = 0;
+
+    // functions called by CALL instructions
+    private Fun[] funs = new Fun[8];
+    private int funCount = 0;
+
+    public int size () {
+        return size;
+    }
+
+    public int op (int i) {
+        return code[3 * i] & 0xff;
+    }
+
+    public int type (int i) {
+        return code[3 * i] >>> 8;
+    }
+
+    public int operand (int i) {
+        return code[3 * i + 1];
+    }
+
+    public int operand2 (int i) {
+        return code[3 * i + 2];
+    }
+
+    public Fun fun (int i) {
+        return funs[operand(i)];
+    }
+
+    public boolean isBuiltin (int i) {
+        return operand2(i) != 0;
+    }
+
+    public double doubleConst (int i) {
+        return Double.longBitsToDouble(((long) operand(i) << 32) | (operand2(i) & 0xffffffffL));
+    }
+
+    // number of local slots the instructions read or write
+    public int maxLocals () {
+        int max = 0;
+        for (int i = 0; i < size; i++) {
+            int op = op(i);
+            if (op == STORE || op == LOAD) max = Math.max(max, operand(i) + size(type(i)));
+            else if (op == INC) max = Math.max(max, operand(i) + 1);
+        }
+        return max;
+    }
+
+    ////////////////////////////// Emission //////////////////////////////
+
+    public void add (int op, int type, int operand, int operand2) {
+        if (3 * size == code.length) {
+            int[] bigger = new int[code.length * 2];
+            System.arraycopy(code, 0, bigger, 0, code.length);
+            code = bigger;
+        }
+        code[3 * size]     = op | (type << 8);
+        code[3 * size + 1] = operand;
+        code[3 * size + 2] = operand2;
+        size++;
+    }
+
+    public void dconst (double d) {
+        long bits = Double.doubleToRawLongBits(d);
+        add(DCONST, DOUBLE, (int) (bits >>> 32), (int) bits);
+    }
+
+    // copies instruction i of another buffer to the end of this one
+    public void append (CodeBuffer from, int i) {
+        if (from.op(i) == CALL) call(from.fun(i), from.isBuiltin(i));
+        else add(from.op(i), from.type(i), from.operand(i), from.operand2(i));
+    }
+
+    public void call (Fun fun, boolean builtin) {
+        if (funCount == funs.length) {
+            Fun[] bigger = new Fun[funs.length * 2];
+            System.arraycopy(funs, 0, bigger, 0, funs.length);
+            funs = bigger;
+        }
+        funs[funCount] = fun;
+        add(CALL, VOID, funCount, builtin ? 1 : 0);
+        funCount++;
+    }
+
+    ////////////////////////////// Types //////////////////////////////
+
+    public static int tag (Type t) {
+        if (t instanceof Type_int) return INT;
+        if (t instanceof Type_bool) return BOOL;
+        if (t instanceof Type_double) return DOUBLE;
+        return VOID;
+    }
+
+    // number of stack slots (or local variable slots) a value takes
+    public static int size (int type) {
+        switch (type) {
+            case INT:
+            case BOOL:   return 1;
+            case DOUBLE: return 2;
+            default:     return 0;
+        }
+    }
+}
+
+
+
+/**
+ * Jasmin text of the instructions in a CodeBuffer.
+ */
+class CodeToJVM {
+
+    // every instruction is appended to this buffer, one per line
+    private final StringBuilder out;
+
+    // owner of the functions that are not built in
+    private final String className;
+
+    public CodeToJVM (StringBuilder out, String className) {
+        this.out = out;
+        this.className = className;
+    }
+
+    // appends instruction i
+    public void instruction (CodeBuffer code, int i) {
+        int type = code.type(i);
+        boolean isDouble = type == CodeBuffer.DOUBLE;
+        int n = code.operand(i);
+        switch (code.op(i)) {
+            case CodeBuffer.STORE:
+                local(isDouble ? "dstore" : "istore", n);
+                break;
+            case CodeBuffer.LOAD:
+                local(isDouble ? "dload" : "iload", n);
+                break;
+            case CodeBuffer.ICONST:
+                if (n == -1) out.append("iconst_m1\n");
+                else if (n >= 0 && n <= 5) out.append("iconst_").append(n).append('\n');
+                else if (n >= -128 && n < 128) out.append("bipush ").append(n).append('\n');
+                else if (n >= Short.MIN_VALUE && n <= Short.MAX_VALUE) out.append("sipush ").append(n).append('\n');
+                else out.append("ldc ").append(n).append('\n');
+                break;
+            case CodeBuffer.DCONST:
+                double d = code.doubleConst(i);
+                // not -0.0, which only looks like 0
+                if (Double.doubleToRawLongBits(d) == 0L) out.append("dconst_0\n");
+                else if (d == 1.0) out.append("dconst_1\n");
+                // jasmin reads numbers too large for a double as infinity,
+                // and has a name of its own for NaN
+                else if (Double.isNaN(d)) out.append("ldc2_w +DoubleNaN\n");
+                else if (Double.isInfinite(d)) out.append(d > 0 ? "ldc2_w 1.0E309\n" : "ldc2_w -1.0E309\n");
+                else out.append("ldc2_w ").append(d).append('\n');
+                break;
+            case CodeBuffer.DUP:
+                out.append(isDouble ? "dup2\n" : "dup\n");
+                break;
+            case CodeBuffer.POP:
+                out.append(isDouble ? "pop2\n" : "pop\n");
+                break;
+            case CodeBuffer.RETURN:
+                // because java boolean uses jvm int
+                if (type == CodeBuffer.INT || type == CodeBuffer.BOOL) out.append("ireturn\n");
+                else if (isDouble) out.append("dreturn\n");
+                else out.append("return\n");
+                break;
+            case CodeBuffer.CALL:
+                Fun fun = code.fun(i);
+                out.append("invokestatic ");
+                if (code.isBuiltin(i)) {
+                    // built-in functions
+                    out.append("Runtime/");
+                } else {
+                    // custom methods
+                    out.append(className).append('/');
+                }
+                out.append(fun.id).append(fun.funType.toJVM()).append('\n');
+                break;
+            case CodeBuffer.LABEL:
+                out.append('L').append(n).append(":\n");
+                break;
+            case CodeBuffer.GOTO:
+                // goto <label_name>
+                jump("goto ", n);
+                break;
+            case CodeBuffer.IFZ:
+                jump("ifeq ", n);
+                break;
+            case CodeBuffer.IFNZ:
+                jump("ifne ", n);
+                break;
+            case CodeBuffer.IFEQ:
+                // a boolean equal to true is not 0, so this is ifne
+                if (type == CodeBuffer.BOOL) jump("ifne ", n);
+                else if (isDouble) jump("ifeq ", n);
+                else jump("if_icmpeq ", n);
+                break;
+            case CodeBuffer.IFNE:
+                // a boolean not equal to true is 0, so this is ifeq
+                if (type == CodeBuffer.BOOL) jump("ifeq ", n);
+                else if (isDouble) jump("ifne ", n);
+                else jump("if_icmpne ", n);
+                break;
+            case CodeBuffer.IFLT:
+                // if_icmplt <label to jump>
+                jump(isDouble ? "iflt " : "if_icmplt ", n);
+                break;
+            case CodeBuffer.IFGT:
+                jump(isDouble ? "ifgt " : "if_icmpgt ", n);
+                break;
+            case CodeBuffer.IFLE:
+                jump(isDouble ? "ifle " : "if_icmple ", n);
+                break;
+            case CodeBuffer.IFGE:
+                jump(isDouble ? "ifge " : "if_icmpge ", n);
+                break;
+            case CodeBuffer.DGT:
+                out.append("dcmpg\n");
+                break;
+            case CodeBuffer.DLT:
+                out.append("dcmpl\n");
+                break;
+            case CodeBuffer.INC:
+                out.append("iinc ").append(n).append(' ').append(code.operand2(i)).append('\n');
+                break;
+            case CodeBuffer.ADD:
+                out.append(isDouble ? "dadd\n" : "iadd\n");
+                break;
+            case CodeBuffer.SUB:
+                out.append(isDouble ? "dsub\n" : "isub\n");
+                break;
+            case CodeBuffer.MUL:
+                out.append(isDouble ? "dmul\n" : "imul\n");
+                break;
+            case CodeBuffer.DIV:
+                out.append(isDouble ? "ddiv\n" : "idiv\n");
+                break;
+            case CodeBuffer.NEG:
+                out.append(isDouble ? "dneg\n" : "ineg\n");
+                break;
+            case CodeBuffer.SHL:
+                out.append("ishl\n");
+                break;
+            case CodeBuffer.SHR:
+                out.append("ishr\n");
+                break;
+            case CodeBuffer.USHR:
+                out.append("iushr\n");
+                break;
+            case CodeBuffer.I2D:
+                out.append("i2d\n");
+                break;
+            default:
+                throw new RuntimeException("unknown instruction " + code.op(i));
+        }
+    }
+
+    // xload/xstore, the short form only exists for the first four slots
+    private void local (String instruction, int addr) {
+        out.append(instruction).append(addr <= 3 ? '_' : ' ').append(addr).append('\n');
+    }
+
+    private void jump (String instruction, int label) {
+        out.append(instruction).append('L').append(label).append('\n');
+    }
+}
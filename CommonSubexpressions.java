@@ -0,0 +1,310 @@
+import java.util.*;
+
+/**
+ * Local value numbering: int arithmetic that a basic block has already
+ * computed is not computed again.
+ *
+ * Every value on the operand stack gets a number, so that two values have
+ * the same number only if they are sure to be equal. A local has the
+ * number of the value last stored into it, a constant the number of its
+ * value, and the result of an operation the number of the operation and
+ * the numbers of its operands. When the instructions of an expression give
+ * a number that an earlier expression of the block already gave, the
+ * first result is kept in a new local and the later expression becomes a
+ * load of it:
+ *
+ *   y = x*y + 1; z = x*y + 2;     (the first x*y sees the old y)
+ *   s = a*b + c; t = a*b + d;     iload a, iload b, imul, dup, istore t ... iload t
+ *
+ * If the later expression comes right after the first one, the first
+ * result is still on top of the stack and a dup does it, as in (a+b)*(a+b).
+ * Only expressions of loads, constants and arithmetic are replaced, so
+ * no call or store is skipped, and a division that would throw has already
+ * thrown the first time.
+ */
+class CommonSubexpressions implements PassManager.MethodPass {
+
+    private CodeBuffer code;
+
+    // for the last instruction of every expression that can be replaced:
+    // its first instruction and its value, otherwise -1
+    private int[] exprStart;
+    private int[] exprValue;
+
+    // the symbolic operand stack of the block: the value number of every
+    // entry, and the instructions that compute it or -1 if it is not
+    // an expression that can be replaced
+    private int[] stackValue = new int[16];
+    private int[] stackStart = new int[16];
+    private int[] stackEnd = new int[16];
+    private int depth;
+
+    private int values;
+
+    public String name () {
+        return "cse";
+    }
+
+    // the fields only hold the state of one method, methods compiled at
+    // the same time each get an instance of their own
+    public CodeBuffer run (CodeBuffer code) {
+        return new CommonSubexpressions().optimize(code);
+    }
+
+    private CodeBuffer optimize (CodeBuffer code) {
+        this.code = code;
+        values = 0;
+        exprStart = new int[code.size()];
+        exprValue = new int[code.size()];
+        Arrays.fill(exprStart, -1);
+
+        // what to do with each instruction, see rewrite
+        int[] replaceWith = new int[code.size()];
+        int[] replaceEnd = new int[code.size()];
+        int[] saveIn = new int[code.size()];
+        Arrays.fill(replaceWith, -1);
+        Arrays.fill(saveIn, -1);
+
+        boolean changed = false;
+        int firstTemp = code.maxLocals();
+        for (BasicBlock b: new ControlFlowGraph(code).blocks) {
+            number(b);
+            changed |= reuse(b, firstTemp, replaceWith, replaceEnd, saveIn);
+        }
+        return changed ? rewrite(replaceWith, replaceEnd, saveIn) : code;
+    }
+
+    ////////////////////////////// Value numbers //////////////////////////////
+
+    private void number (BasicBlock b) {
+        Map<Integer,Integer> locals = new HashMap<>();
+        Map<Integer,Integer> constants = new HashMap<>();
+        Map<Long,Integer> operations = new HashMap<>();
+        depth = 0;
+
+        for (int i = b.start; i < b.end; i++) {
+            int type = code.type(i);
+            int n = code.operand(i);
+            switch (code.op(i)) {
+                case CodeBuffer.LOAD:
+                    if (type != CodeBuffer.INT) push(fresh(), -1, -1);
+                    else push(locals.computeIfAbsent(n, k -> fresh()), i, i);
+                    break;
+                case CodeBuffer.ICONST:
+                    push(constants.computeIfAbsent(n, k -> fresh()), i, i);
+                    break;
+                case CodeBuffer.STORE:
+                    int stored = pop();
+                    locals.put(n, type == CodeBuffer.INT && stored >= 0 ? stackValue[stored] : fresh());
+                    break;
+                case CodeBuffer.INC:
+                    locals.put(n, fresh());
+                    break;
+                case CodeBuffer.DUP:
+                    int top = depth > 0 ? stackValue[depth - 1] : fresh();
+                    push(top, -1, -1);
+                    break;
+                case CodeBuffer.CALL:
+                    for (int k = 0; k < code.fun(i).funType.args.size(); k++) pop();
+                    if (CodeBuffer.tag(code.fun(i).funType.returnType) != CodeBuffer.VOID) push(fresh(), -1, -1);
+                    break;
+                case CodeBuffer.ADD:
+                case CodeBuffer.SUB:
+                case CodeBuffer.MUL:
+                case CodeBuffer.DIV:
+                case CodeBuffer.SHL:
+                case CodeBuffer.SHR:
+                case CodeBuffer.USHR:
+                    operation(i, 2, operations);
+                    break;
+                case CodeBuffer.NEG:
+                    operation(i, 1, operations);
+                    break;
+                case CodeBuffer.DCONST:
+                    push(fresh(), -1, -1);
+                    break;
+                case CodeBuffer.I2D:
+                    pop();
+                    push(fresh(), -1, -1);
+                    break;
+                case CodeBuffer.DGT:
+                case CodeBuffer.DLT:
+                    pop();
+                    pop();
+                    push(fresh(), -1, -1);
+                    break;
+                case CodeBuffer.POP:
+                case CodeBuffer.IFZ:
+                case CodeBuffer.IFNZ:
+                    pop();
+                    break;
+                case CodeBuffer.RETURN:
+                    if (type != CodeBuffer.VOID) pop();
+                    break;
+                case CodeBuffer.IFEQ:
+                case CodeBuffer.IFNE:
+                case CodeBuffer.IFLT:
+                case CodeBuffer.IFGT:
+                case CodeBuffer.IFLE:
+                case CodeBuffer.IFGE:
+                    pop();
+                    if (type == CodeBuffer.INT) pop();
+                    break;
+                default:
+                    // LABEL, GOTO
+                    break;
+            }
+        }
+    }
+
+    // instruction i, an operation on the one or two entries on top of the stack
+    private void operation (int i, int operands, Map<Long,Integer> operations) {
+        int b = operands == 2 ? pop() : -1;
+        int a = pop();
+        if (code.type(i) != CodeBuffer.INT || a < 0 || (operands == 2 && b < 0)) {
+            push(fresh(), -1, -1);
+            return;
+        }
+
+        int op = code.op(i);
+        long x = stackValue[a];
+        long y = operands == 2 ? stackValue[b] : 0;
+        if ((op == CodeBuffer.ADD || op == CodeBuffer.MUL) && y < x) {
+            long t = x; x = y; y = t;
+        }
+        int value = operations.computeIfAbsent((long) op << 56 | x << 28 | y, k -> fresh());
+
+        // the operands must be computed right before the operation, with
+        // nothing else in between, to replace the whole range
+        int last = operands == 2 ? b : a;
+        boolean whole = stackStart[a] >= 0 && stackEnd[last] == i - 1
+                && (operands == 1 || (stackStart[b] >= 0 && stackEnd[a] + 1 == stackStart[b]));
+        int start = whole ? stackStart[a] : -1;
+        push(value, start, i);
+        if (whole) {
+            exprStart[i] = start;
+            exprValue[i] = value;
+        }
+    }
+
+    private int fresh () {
+        return values++;
+    }
+
+    private void push (int value, int start, int end) {
+        if (depth == stackValue.length) {
+            stackValue = Arrays.copyOf(stackValue, depth * 2);
+            stackStart = Arrays.copyOf(stackStart, depth * 2);
+            stackEnd = Arrays.copyOf(stackEnd, depth * 2);
+        }
+        stackValue[depth] = value;
+        stackStart[depth] = start;
+        stackEnd[depth] = end;
+        depth++;
+    }
+
+    // the entry that was on top, or -1 if the value was there before the block
+    private int pop () {
+        return depth > 0 ? --depth : -1;
+    }
+
+    ////////////////////////////// Reuse //////////////////////////////
+
+    // decides which expressions of the block are replaced, true if any is
+    private boolean reuse (BasicBlock b, int firstTemp, int[] replaceWith, int[] replaceEnd, int[] saveIn) {
+        // every expression with each value, in order
+        Map<Integer,List<Integer>> occurrences = new HashMap<>();
+        List<Integer> later = new ArrayList<>();
+        for (int i = b.start; i < b.end; i++) {
+            if (exprStart[i] < 0) continue;
+            List<Integer> same = occurrences.computeIfAbsent(exprValue[i], k -> new ArrayList<>());
+            if (!same.isEmpty() && exprStart[i] > same.get(0)) later.add(i);
+            same.add(i);
+        }
+        if (later.isEmpty()) return false;
+
+        // the largest expressions first, an expression inside one that
+        // is replaced goes away with it
+        later.sort((i, j) -> (j - exprStart[j]) - (i - exprStart[i]));
+        boolean[] covered = new boolean[b.end - b.start];
+        Map<Integer,List<Integer>> uses = new LinkedHashMap<>();
+        for (int i: later) {
+            if (covered[i - b.start]) continue;
+            for (int k = exprStart[i]; k <= i; k++) covered[k - b.start] = true;
+            uses.computeIfAbsent(exprValue[i], k -> new ArrayList<>()).add(i);
+        }
+
+        boolean changed = false;
+        int temp = firstTemp;
+        for (Map.Entry<Integer,List<Integer>> e: uses.entrySet()) {
+            List<Integer> ends = e.getValue();
+            ends.sort(null);
+            // the value is computed by the first expression that is not
+            // inside a replaced one; if that is a use, it stays as it is
+            int def = -1;
+            for (int d: occurrences.get(e.getKey())) {
+                if (ends.contains(d)) {
+                    ends.remove((Integer) d);
+                    def = d;
+                    break;
+                }
+                if (!covered[d - b.start]) {
+                    def = d;
+                    break;
+                }
+            }
+            if (ends.isEmpty()) continue;
+            changed = true;
+
+            for (int end: ends) replaceEnd[exprStart[end]] = end;
+            if (ends.size() == 1 && exprStart[ends.get(0)] == def + 1) {
+                // still on top of the stack
+                replaceWith[exprStart[ends.get(0)]] = -2;
+                continue;
+            }
+            int local = keptIn(def, ends.get(ends.size() - 1));
+            if (local < 0) {
+                local = temp++;
+                saveIn[def] = local;
+            }
+            for (int end: ends) replaceWith[exprStart[end]] = local;
+        }
+        return changed;
+    }
+
+    // the variable the value of instruction def is stored in right away,
+    // if it still holds it up to instruction last, otherwise -1
+    private int keptIn (int def, int last) {
+        if (code.op(def + 1) != CodeBuffer.STORE || code.type(def + 1) != CodeBuffer.INT) return -1;
+        int local = code.operand(def + 1);
+        for (int i = def + 2; i <= last; i++) {
+            int op = code.op(i);
+            if ((op == CodeBuffer.STORE || op == CodeBuffer.INC) && code.operand(i) == local) return -1;
+        }
+        return local;
+    }
+
+    // replaceWith[i] is set at the start of a replaced expression: the
+    // local to load, or -2 for a dup, and replaceEnd[i] is its last
+    // instruction; saveIn[i] is set at the end of an expression whose
+    // value is kept
+    private CodeBuffer rewrite (int[] replaceWith, int[] replaceEnd, int[] saveIn) {
+        CodeBuffer out = new CodeBuffer();
+        int i = 0;
+        while (i < code.size()) {
+            if (replaceWith[i] != -1) {
+                if (replaceWith[i] == -2) out.add(CodeBuffer.DUP, CodeBuffer.INT, 0, 0);
+                else out.add(CodeBuffer.LOAD, CodeBuffer.INT, replaceWith[i], 0);
+                i = replaceEnd[i] + 1;
+                continue;
+            }
+            out.append(code, i);
+            if (saveIn[i] >= 0) {
+                out.add(CodeBuffer.DUP, CodeBuffer.INT, 0, 0);
+                out.add(CodeBuffer.STORE, CodeBuffer.INT, saveIn[i], 0);
+            }
+            i++;
+        }
+        return out;
+    }
+}
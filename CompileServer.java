@@ -0,0 +1,164 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Long-lived compile server, so the parser, type checker and compiler
+ * stay loaded and JIT-compiled between compiles. Started with
+ * "lab3 --server [--socket path]", used through lab3client.
+ *
+ * It listens on a Unix-domain socket and handles one request per
+ * connection. A request is a sequence of lines:
+ *
+ *   cwd <directory of the client>
+ *   arg <argument of lab3>          (any number of these)
+ *   source <n>                      (optional, followed by n bytes of source text)
+ *   end
+ *
+ * or the single line "stop" to shut the server down. The answer is
+ *
+ *   out <n>   followed by n bytes of standard output
+ *   err <n>   followed by n bytes of standard error
+ *   exit <status>
+ */
+public class CompileServer {
+
+    public static void main(String args[]) {
+        Path socket = defaultSocket();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--socket") && i + 1 < args.length) {
+                socket = Paths.get(args[++i]);
+            } else if (!args[i].equals("--server")) {
+                System.err.println("Usage: lab3 --server [--socket <path>]");
+                System.exit(1);
+            }
+        }
+
+        try {
+            serve(socket);
+        } catch (IOException e) {
+            System.err.println(e.toString());
+            System.exit(1);
+        }
+    }
+
+    public static Path defaultSocket() {
+        return Paths.get(System.getProperty("java.io.tmpdir"),
+                "lab3-" + System.getProperty("user.name") + ".sock");
+    }
+
+    public static void serve(Path socket) throws IOException {
+        // a socket file left behind by a server that was killed
+        Files.deleteIfExists(socket);
+
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(socket));
+        java.lang.Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Files.deleteIfExists(socket);
+            } catch (IOException e) {
+                // nothing left to do about it
+            }
+        }));
+        System.err.println("lab3 server listening on " + socket);
+
+        // requests are handled one after the other
+        boolean running = true;
+        while (running) {
+            try (SocketChannel client = server.accept()) {
+                running = handle(new BufferedInputStream(Channels.newInputStream(client)),
+                        new BufferedOutputStream(Channels.newOutputStream(client)));
+            } catch (IOException e) {
+                // a broken connection only affects that one client
+                System.err.println(e.toString());
+            }
+        }
+        server.close();
+        Files.deleteIfExists(socket);
+    }
+
+    // returns false when the server was asked to stop
+    private static boolean handle(InputStream in, OutputStream out) throws IOException {
+        String cwd = null;
+        String source = null;
+        List<String> args = new ArrayList<>();
+
+        String line;
+        while (!(line = readLine(in)).equals("end")) {
+            if (line.equals("stop")) {
+                writeAnswer(out, new byte[0], new byte[0], 0);
+                return false;
+            } else if (line.startsWith("cwd ")) {
+                cwd = line.substring(4);
+            } else if (line.startsWith("arg ")) {
+                args.add(line.substring(4));
+            } else if (line.startsWith("source ")) {
+                source = new String(readBytes(in, Integer.parseInt(line.substring(7))),
+                        StandardCharsets.UTF_8);
+            } else {
+                throw new IOException("bad request: " + line);
+            }
+        }
+        if (cwd == null)
+            throw new IOException("bad request: no working directory");
+
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        PrintStream pout = new PrintStream(stdout, true, "UTF-8");
+        PrintStream perr = new PrintStream(stderr, true, "UTF-8");
+
+        // --run would execute the program with the server's stdin and stdout
+        int status = lab3.execute(args.toArray(new String[0]), Paths.get(cwd), source,
+                pout, perr, false);
+
+        pout.flush();
+        perr.flush();
+        writeAnswer(out, stdout.toByteArray(), stderr.toByteArray(), status);
+        return true;
+    }
+
+    private static void writeAnswer(OutputStream out, byte[] stdout, byte[] stderr, int status)
+            throws IOException {
+        out.write(("out " + stdout.length + "\n").getBytes(StandardCharsets.UTF_8));
+        out.write(stdout);
+        out.write(("err " + stderr.length + "\n").getBytes(StandardCharsets.UTF_8));
+        out.write(stderr);
+        out.write(("exit " + status + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    ///////////////////////// Protocol helpers /////////////////////////
+
+    static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b == -1) throw new EOFException("connection closed");
+            line.write(b);
+        }
+        return new String(line.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    static byte[] readBytes(InputStream in, int n) throws IOException {
+        byte[] bytes = new byte[n];
+        new DataInputStream(in).readFully(bytes);
+        return bytes;
+    }
+}
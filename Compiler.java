@@ -1,40 +1,95 @@
 import CPP.Absyn.*;
+import CPP.Symbols;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.lang.*;
 import java.util.*;
 
+// All state of a compilation lives in the Compiler instance and is reset
+// by assemble(), so compiling on several threads at the same time is safe
+// as long as every thread uses its own Compiler. The functions of a
+// program are compiled by Compilers of their own, see ProgramVisitor.
 public class Compiler
 {
-    // The output of the compiler is a list of strings.
-    private LinkedList<String> output;
+    // The jasmin code of the class, when it is wanted.
+    private JasminWriter jasmin;
+
+    // The instructions of the method being compiled, for the class file.
+    private CodeBuffer code;
+
+    // The methods compiled so far.
+    private List<MethodInfo> methods;
+
+    // Also write the jasmin code to className.j for debugging.
+    private boolean dumpJasmin;
+
+    // The optimizations to run on the tree and on every method.
+    private PassManager passes;
+
+    // Where the time of code generation and emission is counted.
+    private PhaseTimes times = PhaseTimes.OFF;
+
+    // Whether the functions may be compiled on several threads.
+    private boolean parallel = true;
 
     // Signature mapping function names to their JVM name and type
     private Map<String,Fun> sig;
 
-    // Context mapping variable identifiers to their type.
-    private List<Map<String,Type>> cxt;
+    // Functions of the Runtime class
+    private Map<String,Fun> builtins;
+
+    // Type of every expression, from the type checker.
+    private ExpTypes types;
+
+    // Context mapping variable identifiers to their address.
+    private ScopedMap<Integer> addrs;
 
-    // Context mapping address identifiers to their type.
-    private List<Map<String,Integer>> addrs;
+    // Identifiers of the program, interned by the lexer
+    private Symbols symbols = new Symbols();
 
     // Next free address for local variable;
     private int nextLocal = 0;
 
+    // nextLocal when each enclosing block was entered, innermost first;
+    // the slots above it are free again once the block ends.
+    private LinkedList<Integer> blockLocals;
+
     // jasmin: Sets the number of local variables required by the method.
     private int limitLocals;
 
     // jasmin: Sets the maximum size of the operand stack required by the method.
     private int limitStack;
 
-    // Current stack size
-    private int currentStack;
-
-    // Global counter to get next label;
+    // Counter to get next label, labels are numbered per method
     int currentLabel = 0;
 
+    // Turn return f(...) inside f into a jump back to the start of f.
+    private boolean tailCalls = true;
+
+    // The function being compiled, and the label at its start for tail calls.
+    private DFun currentFun;
+    private int lStart;
+
+    // Copy the body of a function into its callers if it is not recursive
+    // and has at most this many nodes in its tree, 0 for never.
+    private int inlineLimit = 40;
+
+    // The functions that are inlined, by name.
+    private Map<String,DFun> inlined;
+
+    // Where a return inside an inlined body jumps to, and the type tag of
+    // the value it leaves, innermost first.
+    private LinkedList<Integer> inlineExits;
+    private LinkedList<Integer> inlineTypes;
+
     //private BranchingUtils branchingUtils;
     private String className;
 
@@ -47,49 +102,174 @@ public class Compiler
 
     private final String PRINT_INT = "printInt";
     private final String READ_INT = "readInt";
+    private final String PRINT_DOUBLE = "printDouble";
+    private final String READ_DOUBLE = "readDouble";
 
     private final String NEW_LINE = "\n";
 
+    public Compiler() {
+        this(false, PassManager.standard(new Peephole()));
+    }
+
+    public Compiler(boolean dumpJasmin, PassManager passes) {
+        this.dumpJasmin = dumpJasmin;
+        this.passes = passes;
+    }
+
+    // a compiler for one function of the program that program is
+    // compiling, sharing what is only read and with a method of its own
+    private Compiler(Compiler program) {
+        this.passes = program.passes;
+        this.times = program.times;
+        this.sig = program.sig;
+        this.builtins = program.builtins;
+        this.types = program.types;
+        this.symbols = program.symbols;
+        this.tailCalls = program.tailCalls;
+        this.parallel = program.parallel;
+        this.inlined = program.inlined;
+        this.inlineExits = new LinkedList<>();
+        this.inlineTypes = new LinkedList<>();
+    }
+
+    public void setTailCalls(boolean tailCalls) {
+        this.tailCalls = tailCalls;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    public void setInlineLimit(int inlineLimit) {
+        this.inlineLimit = inlineLimit;
+    }
+
+    // the ones the program was lexed with
+    public void setSymbols(Symbols symbols) {
+        this.symbols = symbols;
+    }
+
+    // also counts the time of the passes
+    public void setPhaseTimes(PhaseTimes times) {
+        this.times = times;
+        passes.timed(times);
+    }
 
 
 
     public void compile(String name, CPP.Absyn.Program p) {
+        try {
+            compile(name, p, new TypeChecker(symbols).typeCheck(p), Paths.get(""), null);
+        } catch (FileNotFoundException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**compiles the program to className.class in outputDir, echoing the jasmin code to echo if not null;
+     * types are the types the type checker found for p*/
+    public void compile(String name, CPP.Absyn.Program p, ExpTypes types, Path outputDir, PrintStream echo)
+            throws IOException {
+        FileChannel file = null;
+        if (dumpJasmin) {
+            file = FileChannel.open(outputDir.resolve(toClassName(name)+".j"),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        }
+
+        byte[] bytes;
+        try {
+            if (file != null || echo != null) {
+                jasmin = new JasminWriter(toClassName(name), file, echo);
+            }
+            bytes = assemble(name, p, types);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            if (jasmin != null) jasmin.close();
+            else if (file != null) file.close();
+            jasmin = null;
+        }
+
+        times.start("emit");
+        Files.write(outputDir.resolve(className+".class"), bytes);
+        times.stop();
+    }
+
+    /**compiles the program to the bytes of className.class without writing any file*/
+    public byte[] assemble(String name, CPP.Absyn.Program p, ExpTypes types) {
+        times.start("codegen");
+        try {
+            return assembleClass(name, p, types);
+        } finally {
+            times.stop();
+        }
+    }
+
+    private byte[] assembleClass(String name, CPP.Absyn.Program p, ExpTypes types) {
         //branchingUtils = new BranchingUtils();
         // Initialize output
-        output = new LinkedList();
+        methods = new LinkedList<>();
 
         // boilerplate code before start execute everything
-        className = name.substring(0, name.indexOf(".cc"));
-        output.add(boilerPlateConst(className));
+        className = toClassName(name);
+        if (jasmin != null) jasmin.write(boilerPlateConst(className));
+
+        builtins = new HashMap<>();
+        builtins.put(PRINT_INT, new Fun(PRINT_INT, new FunType(new Type_void(), singleArg(new Type_int()))));
+        builtins.put(READ_INT, new Fun(READ_INT, new FunType(new Type_int(), new ListArg())));
+        builtins.put(PRINT_DOUBLE, new Fun(PRINT_DOUBLE, new FunType(new Type_void(), singleArg(new Type_double()))));
+        builtins.put(READ_DOUBLE, new Fun(READ_DOUBLE, new FunType(new Type_double(), new ListArg())));
 
         // Create signature
-        sig = new TreeMap();
+        sig = new HashMap<>();
         for (Def d: ((PDefs)p).listdef_) {
             DFun def = (DFun)d;
             sig.put(def.id_,
                     new Fun(def.id_, new FunType(def.type_, def.listarg_)));
         }
 
+        // Optimize the tree before it is compiled
+        Program optimized = passes.runProgramPasses(p);
+        this.types = types;
+        if(optimized != p) {
+            // the passes rebuild the tree with the ComposVisitor, so every
+            // node is new and has no type yet; giving each a type in the
+            // passes would repeat the checker in all of them, and the
+            // program is known to be well typed, so it is checked again
+            times.start("typecheck");
+            TypeChecker checker = new TypeChecker(symbols);
+            checker.setParallel(parallel);
+            this.types = checker.typeCheck(optimized);
+            times.stop();
+            p = optimized;
+        }
+
+        // Choose the functions to inline
+        inlined = inlineCandidates((PDefs) p);
+
         // Run compiler
         p.accept(new ProgramVisitor(), null);
-        try {
-            PrintWriter out = new PrintWriter(className+".j");
-            // Output result
-            for (String s: output) {
-                System.out.print(s);
-                out.print(s);
-            }
-            out.close();
 
-            Process process = java.lang.Runtime.getRuntime().exec("java -jar jasmin.jar "+className+".j");
-            process.waitFor();
-        } catch (FileNotFoundException e) {
-            e.printStackTrace();
-        } catch (IOException e) {
-            e.printStackTrace();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        // Assemble the class file in-process
+        times.start("emit");
+        ClassFile classFile = new ClassFile(className);
+        classFile.addMethod(mainWrapper());
+        for (MethodInfo m: methods) {
+            classFile.addMethod(m);
         }
+        byte[] bytes = classFile.toByteArray();
+        times.stop();
+        return bytes;
+    }
+
+    private String toClassName(String name) {
+        return name.substring(0, name.indexOf(".cc"));
+    }
+
+    public String getClassName() {
+        return className;
     }
 
 
@@ -100,9 +280,20 @@ public class Compiler
     {
         public Void visit(CPP.Absyn.PDefs p, Void arg)
         {
-            for (Def def: p.listdef_)
+            // every function is compiled on its own, maybe on another
+            // thread, and the methods are added in the order of the
+            // functions. The phase times are not shared between threads,
+            // so timed compilations use this one only
+            List<MethodInfo> compiled = PerFunction.map(p.listdef_, parallel && !times.isEnabled(),
+                    def -> def.accept(new Compiler(Compiler.this).new DefVisitor(), null));
+            for (MethodInfo m: compiled)
             {
-                def.accept(new DefVisitor(), null);
+                methods.add(m);
+                if (jasmin != null) {
+                    times.start("emit");
+                    jasmin.method(sig.get(m.name).toJVM(), m.maxLocals, m.maxStack, m.code);
+                    times.stop();
+                }
             }
             return null;
         }
@@ -112,26 +303,31 @@ public class Compiler
 
 
 
-    public class DefVisitor implements Def.Visitor<Void,Void>
+    public class DefVisitor implements Def.Visitor<MethodInfo,Void>
     {
-        public Void visit(CPP.Absyn.DFun p, Void arg)
+        public MethodInfo visit(CPP.Absyn.DFun p, Void arg)
         {
             // reset state for new function
-            cxt = new LinkedList();
-            addrs = new LinkedList();
-            cxt.add(new TreeMap());
-            addrs.add(new TreeMap());
+            addrs = new ScopedMap<>(symbols);
+            blockLocals = new LinkedList<>();
             nextLocal = 0;
             limitLocals = 0;
             limitStack  = 0;
-            currentStack = 0;
 
-            // save output so far and reset output;
-            LinkedList<String> savedOutput = output;
-            output = new LinkedList();
+            // reset output;
+            code = new CodeBuffer();
+            currentFun = p;
 
             // Compile function
 
+            // self tail calls jump back here
+            lStart = -1;
+            if(tailCalls && p.accept(new SelfTailCall(), null)) {
+                lStart = makeNewLabel();
+                addLabelAddress();
+                emit(CodeBuffer.LABEL, CodeBuffer.VOID, lStart);
+            }
+
             // Add function parameters to context
             for (Arg x: p.listarg_)
                 x.accept (new ArgVisitor(), null);
@@ -140,38 +336,30 @@ public class Compiler
                 s.accept(new StmVisitor(), null);
             }
 
-            // we get new output by visiting the args and statements
-            LinkedList<String> newOutput = output;
-            // we reset the global output
-            output = savedOutput;
-
-            // then add the initial method code to the top of the output
-            output.add("\n.method public static " + sig.get(p.id_).toJVM() + "\n");
-            output.add("  .limit locals " + limitLocals + "\n");
-            output.add("  .limit stack " + limitStack + "\n\n");
-
-            // then we iterate the new output and append the items to the global output
-            for (String s: newOutput) {
-                output.add("  " + s);
-            }
-
             // because not all test files have return 0!
-            if(p.id_.equals("main")) {
-                String ending = output.get(output.size()-1);
-                if(!ending.contains("ireturn")) {
-                    output.add("iconst_0\n");
-                    output.add("ireturn\n");
-                }
-            } else {
-                String ending = output.get(output.size()-1);
-                if(!ending.contains("return")) {
-                    output.add("return\n");
+            // only when the end of the body can be reached, so every
+            // path out of the function has exactly one return
+            if(DeadCodeEliminator.completes(p.liststm_)) {
+                int t = CodeBuffer.tag(p.type_);
+                if(t == CodeBuffer.VOID) {
+                    emit(CodeBuffer.RETURN, CodeBuffer.VOID, 0);
+                } else {
+                    pushZero(t);
+                    emit(CodeBuffer.RETURN, t, 0);
                 }
             }
 
-            // end the method
-            output.add("\n.end method\n");
-            return null;
+            code = passes.runMethodPasses(code);
+            // passes may add locals of their own
+            limitLocals = Math.max(limitLocals, code.maxLocals());
+
+            // follows every branch, so the height is exact
+            times.start("stack-analysis");
+            limitStack = new StackAnalysis(code).run();
+            times.stop();
+
+            return new MethodInfo(p.id_, sig.get(p.id_).funType.toJVM(),
+                    limitStack, limitLocals, code);
         }
     }
 
@@ -197,7 +385,12 @@ public class Compiler
         // e;
         public Void visit(CPP.Absyn.SExp p, String arg)
         {
-            p.exp_.accept(new ExpVisitor(), STM_EXP);
+            int t = typeOf(p.exp_);
+            genExp(p.exp_, t, STM_EXP);
+
+            // the value of the expression is not used
+            if (leavesValue(p.exp_))
+                popStack(t);
             return null;
         }
 
@@ -215,8 +408,8 @@ public class Compiler
         {
             newVar(p.id_, p.type_);
             Integer addr = lookupVar(p.id_);
-            p.exp_.accept(new ExpVisitor(), STM_INIT);
-            emit(new Store(p.type_, addr));
+            genExp(p.exp_, CodeBuffer.tag(p.type_), STM_INIT);
+            emit(CodeBuffer.STORE, CodeBuffer.tag(p.type_), addr);
             return null;
         }
 
@@ -236,37 +429,45 @@ public class Compiler
 
         public Void visit(CPP.Absyn.SReturn p, String arg)
         { /* Code For SReturn Goes Here */
-            // because int and boolean both use ireturn
-            // while void doesn't have return statement
-            String id = p.exp_.accept(new ExpVisitor(), STM_RETURN);
-            loadVariable(new Type_int(), id);
-            emit (new Return(new Type_int()));
+            if(lStart >= 0 && inlineExits.isEmpty() && isSelfCall(p.exp_)) {
+                tailCall((EApp) p.exp_);
+                return null;
+            }
+
+            // void doesn't have return statement
+            if(!inlineExits.isEmpty()) {
+                // the value is the result of the inlined call
+                genExp(p.exp_, inlineTypes.peek(), STM_RETURN);
+                emit(CodeBuffer.GOTO, CodeBuffer.VOID, inlineExits.peek());
+                return null;
+            }
+            int t = CodeBuffer.tag(currentFun.type_);
+            genExp(p.exp_, t, STM_RETURN);
+            emit(CodeBuffer.RETURN, t, 0);
             return null;
         }
 
-        /**loop adds label when the condition is true
-         * and also label when the condition is false*/
+        /**the condition is tested at the bottom of the loop,
+         * so every iteration takes only one branch*/
         public Void visit(CPP.Absyn.SWhile p, String arg)
         { /* Code For SWhile Goes Here */
             Exp condition = p.exp_;
             Stm loopStm = p.stm_;
 
-            Label lCondition = makeNewLabel();
+            int lBody = makeNewLabel();
             addLabelAddress();
-
-            emit(lCondition);
-            String id = condition.accept(new ExpVisitor(), STM_WHILE);
-            loadVariable(new Type_int(), id);
-
-            Label lOut = makeNewLabel();
+            int lCondition = makeNewLabel();
             addLabelAddress();
-            emit(new IfNe(new Type_bool(), lOut));// ifeq
 
+            emit(CodeBuffer.GOTO, CodeBuffer.VOID, lCondition);
+            emit(CodeBuffer.LABEL, CodeBuffer.VOID, lBody);
+            // the body is a scope of its own, as for the type checker
+            addBlockLevel();
             loopStm.accept(new StmVisitor(), STM_WHILE);
-            popUnusedLoad();
-            emit(new Goto(lCondition));
+            removeTopBlock();
 
-            emit(lOut);
+            emit(CodeBuffer.LABEL, CodeBuffer.VOID, lCondition);
+            jumpIf(condition, true, lBody, STM_WHILE);
 
             return null;
         }
@@ -277,25 +478,26 @@ public class Compiler
             Stm stmTrue = p.stm_1;
             Stm stmFalse = p.stm_2;
 
-            String id = condition.accept(new ExpVisitor(), STM_IFELSE);
-            loadVariable(new Type_int(), id);
-
-            Label lFalse = makeNewLabel();
+            int lFalse = makeNewLabel();
             addLabelAddress();
-            Label lOut = makeNewLabel();
+            int lOut = makeNewLabel();
             addLabelAddress();
-            emit(new IfNe(new Type_bool(), lFalse));// ifeq
+            jumpIf(condition, false, lFalse, STM_IFELSE);
 
+            // each branch is a scope of its own, as for the type checker
+            addBlockLevel();
             stmTrue.accept(new StmVisitor(), STM_IFELSE);
-            popUnusedLoad();
-            emit(new Goto(lOut));
+            removeTopBlock();
+            if(DeadCodeEliminator.completes(stmTrue))
+                emit(CodeBuffer.GOTO, CodeBuffer.VOID, lOut);
 
-            emit(lFalse);
+            emit(CodeBuffer.LABEL, CodeBuffer.VOID, lFalse);
+            addBlockLevel();
             stmFalse.accept(new StmVisitor(), STM_IFELSE);
-            popUnusedLoad();
-            emit(new Goto(lOut));
+            removeTopBlock();
 
-            emit(lOut);
+            if(DeadCodeEliminator.completes(p))
+                emit(CodeBuffer.LABEL, CodeBuffer.VOID, lOut);
 
             return null;
         }
@@ -309,24 +511,23 @@ public class Compiler
     {
         public String visit(CPP.Absyn.ETrue p, String arg)
         { /* Code For ETrue Goes Here */
-            emit(new IConst(1));
+            emit(CodeBuffer.ICONST, CodeBuffer.INT, 1);
             return "true";
         }
         public String visit(CPP.Absyn.EFalse p, String arg)
         { /* Code For EFalse Goes Here */
-            emit(new IConst(0));
+            emit(CodeBuffer.ICONST, CodeBuffer.INT, 0);
             return "false";
         }
         public String visit(CPP.Absyn.EInt p, String arg)
         {
-            emit(new IConst(p.integer_));
+            emit(CodeBuffer.ICONST, CodeBuffer.INT, p.integer_);
             return null;
         }
 
-        // exclude double for now
         public String visit(CPP.Absyn.EDouble p, String arg)
         { /* Code For EDouble Goes Here */
-            //p.double_;
+            code.dconst(p.double_);
             return null;
         }
 
@@ -336,186 +537,109 @@ public class Compiler
         }
         public String visit(CPP.Absyn.EApp p, String arg)
         { /* Code For EApp Goes Here */
-            for (Exp x: p.listexp_) {
-                String id = x.accept(new ExpVisitor(), arg);
-                Type t = new Type_int();
-                loadVariable(t, id);
+            if(inlined.containsKey(p.id_)) {
+                inline(inlined.get(p.id_), p, arg);
+                return null;
             }
 
-            if(p.id_.equals(PRINT_INT)) {
-                // name, return, args
-                emit(new Call(PRINT_INT, FunType.ASM_VOID, FunType.ASM_INT));
-            } else if(p.id_.equals(READ_INT)) {
-                emit(new Call(READ_INT, FunType.ASM_INT, ""));
-            } else {
-                Fun fun = sig.get(p.id_);
-                emit(new Call(className, fun));
-            }
+            boolean builtin = builtins.containsKey(p.id_);
+            Fun fun = builtin ? builtins.get(p.id_) : sig.get(p.id_);
+            genArgs(p.listexp_, fun.funType.args, arg);
+            emitCall(fun, builtin);
             return null;
         }
         public String visit(CPP.Absyn.EPostIncr p, String arg)
         { /* Code For EPostIncr Goes Here */
             String id = p.exp_.accept(new ExpVisitor(), arg);
-            Type t = new Type_int();
-            loadVariable(t, id);
-            emit(new Inc(t, lookupVar(id), 1));
-
+            genIncrement(id, typeOf(p), 1, true);
             return null;
         }
         public String visit(CPP.Absyn.EPostDecr p, String arg)
         { /* Code For EPostDecr Goes Here */
             String id = p.exp_.accept(new ExpVisitor(), arg);
-            Type t = new Type_int();
-            loadVariable(t, id);
-            emit(new Inc(t, lookupVar(id), -1));
-
+            genIncrement(id, typeOf(p), -1, true);
             return null;
         }
         public String visit(CPP.Absyn.EPreIncr p, String arg)
         { /* Code For EPreIncr Goes Here */
             String id = p.exp_.accept(new ExpVisitor(), arg);
-            Type t = new Type_int();
-            emit(new Inc(t, lookupVar(id), 1));
-            loadVariable(t, id);
+            genIncrement(id, typeOf(p), 1, false);
             return null;
         }
         public String visit(CPP.Absyn.EPreDecr p, String arg)
         { /* Code For EPreDecr Goes Here */
             String id = p.exp_.accept(new ExpVisitor(), arg);
-            Type t = new Type_int();
-            emit(new Inc(t, lookupVar(id), -1));
-            loadVariable(t, id);
+            genIncrement(id, typeOf(p), -1, false);
             return null;
         }
         public String visit(CPP.Absyn.ETimes p, String arg)
         { /* Code For ETimes Goes Here */
-            Type t = new Type_int();
-
-            String exp1 = p.exp_1.accept(new ExpVisitor(), arg);
-            loadVariable(t, exp1);
+            // an int operand of double arithmetic is converted
+            int t = typeOf(p);
+            genExp(p.exp_1, t, arg);
+            genExp(p.exp_2, t, arg);
 
-            String exp2 = p.exp_2.accept(new ExpVisitor(), arg);
-            loadVariable(t, exp2);
-
-            emit(new Mul(t));
+            emit(CodeBuffer.MUL, t, 0);
             return null;
         }
         public String visit(CPP.Absyn.EDiv p, String arg)
         { /* Code For EDiv Goes Here */
-            Type t = new Type_int();
-
-            String exp1 = p.exp_1.accept(new ExpVisitor(), arg);
-            loadVariable(t, exp1);
-
-            String exp2 = p.exp_2.accept(new ExpVisitor(), arg);
-            loadVariable(t, exp2);
+            // an int operand of double arithmetic is converted
+            int t = typeOf(p);
+            genExp(p.exp_1, t, arg);
+            genExp(p.exp_2, t, arg);
 
-            emit(new Div(t));
+            emit(CodeBuffer.DIV, t, 0);
             return null;
         }
         public String visit(CPP.Absyn.EPlus p, String arg)
         { /* Code For EPlus Goes Here */
-            Type t = new Type_int();
+            // an int operand of double arithmetic is converted
+            int t = typeOf(p);
+            genExp(p.exp_1, t, arg);
+            genExp(p.exp_2, t, arg);
 
-            String exp1 = p.exp_1.accept(new ExpVisitor(), arg);
-            loadVariable(t, exp1);
-
-            String exp2 = p.exp_2.accept(new ExpVisitor(), arg);
-            loadVariable(t, exp2);
-
-            emit(new Add(t));
+            emit(CodeBuffer.ADD, t, 0);
             return null;
         }
         public String visit(CPP.Absyn.EMinus p, String arg)
         { /* Code For EMinus Goes Here */
-            Type t = new Type_int();
+            // an int operand of double arithmetic is converted
+            int t = typeOf(p);
+            genExp(p.exp_1, t, arg);
+            genExp(p.exp_2, t, arg);
 
-            String exp1 = p.exp_1.accept(new ExpVisitor(), arg);
-            loadVariable(t, exp1);
-
-            String exp2 = p.exp_2.accept(new ExpVisitor(), arg);
-            loadVariable(t, exp2);
-
-            emit(new Sub(t));
+            emit(CodeBuffer.SUB, t, 0);
             return null;
         }
         public String visit(CPP.Absyn.ELt p, String arg)
         { /* Code For ELt Goes Here */
-            Type t = new Type_int();
-
-            String exp1 = p.exp_1.accept(new ExpVisitor(), arg);
-            loadVariable(t, exp1);
-
-            String exp2 = p.exp_2.accept(new ExpVisitor(), arg);
-            loadVariable(t, exp2);
-
-            // TODO
-            genBooleanBranch(p);
+            genBooleanValue(p, arg);
             return null;
         }
         public String visit(CPP.Absyn.EGt p, String arg)
         { /* Code For EGt Goes Here */
-            Type t = new Type_int();
-
-            String exp1 = p.exp_1.accept(new ExpVisitor(), arg);
-            loadVariable(t, exp1);
-
-            String exp2 = p.exp_2.accept(new ExpVisitor(), arg);
-            loadVariable(t, exp2);
-
-            genBooleanBranch(p);
+            genBooleanValue(p, arg);
             return null;
         }
         public String visit(CPP.Absyn.ELtEq p, String arg)
         { /* Code For ELtEq Goes Here */
-            Type t = new Type_int();
-
-            String exp1 = p.exp_1.accept(new ExpVisitor(), arg);
-            loadVariable(t, exp1);
-
-            String exp2 = p.exp_2.accept(new ExpVisitor(), arg);
-            loadVariable(t, exp2);
-
-            genBooleanBranch(p);
+            genBooleanValue(p, arg);
             return null;
         }
         public String visit(CPP.Absyn.EGtEq p, String arg)
         { /* Code For EGtEq Goes Here */
-            Type t = new Type_int();
-
-            String exp1 = p.exp_1.accept(new ExpVisitor(), arg);
-            loadVariable(t, exp1);
-
-            String exp2 = p.exp_2.accept(new ExpVisitor(), arg);
-            loadVariable(t, exp2);
-
-            genBooleanBranch(p);
+            genBooleanValue(p, arg);
             return null;
         }
         public String visit(CPP.Absyn.EEq p, String arg)
         { /* Code For EEq Goes Here */
-            Type t = new Type_int();
-
-            String exp1 = p.exp_1.accept(new ExpVisitor(), arg);
-            loadVariable(t, exp1);
-
-            String exp2 = p.exp_2.accept(new ExpVisitor(), arg);
-            loadVariable(t, exp2);
-
-            genBooleanBranch(p);
+            genBooleanValue(p, arg);
             return null;
         }
         public String visit(CPP.Absyn.ENEq p, String arg)
         { /* Code For ENEq Goes Here */
-            Type t = new Type_int();
-
-            String exp1 = p.exp_1.accept(new ExpVisitor(), arg);
-            loadVariable(t, exp1);
-
-            String exp2 = p.exp_2.accept(new ExpVisitor(), arg);
-            loadVariable(t, exp2);
-
-            genBooleanBranch(p);
+            genBooleanValue(p, arg);
             return null;
         }
         public String visit(CPP.Absyn.EAnd p, String arg)
@@ -523,32 +647,26 @@ public class Compiler
             // for && if exp1 is true then needs to evaluate exp2
             // but if exp1 is false, whatever value of exp2 will make entire statement false
             // thus, no need to evaluate exp2
-            lazyEvaluation(p, arg);
+            genBooleanValue(p, arg);
             return null;
         }
         public String visit(CPP.Absyn.EOr p, String arg)
         { /* Code For EOr Goes Here */
             // OR just need exp1 to be true and the rest won't be evaluated
             // since every value from exp2 will result the statement to be true
-            lazyEvaluation(p, arg);
+            genBooleanValue(p, arg);
             return null;
         }
         public String visit(CPP.Absyn.EAss p, String arg)
         { /* Code For EAss Goes Here */
-            Type t = new Type_int();
-
-            String exp2 = p.exp_2.accept(new ExpVisitor(), arg);
-            loadVariable(t, exp2);
+            int t = typeOf(p.exp_1);
+            genExp(p.exp_2, t, arg);
 
             String exp1 = p.exp_1.accept(new ExpVisitor(), arg);
 
-            // sequence of istore, iload, pop
-            emit(new Store(t, lookupVar(exp1)));
-            emit(new Load(t, lookupVar(exp1)));
-
-            // pop only when assignment is an expression statement
-            if(arg.equals(STM_EXP))
-                popStack();
+            // sequence of istore, iload; SExp pops the value if it is not used
+            emit(CodeBuffer.STORE, t, lookupVar(exp1));
+            emit(CodeBuffer.LOAD, t, lookupVar(exp1));
 
             return null;
         }
@@ -558,162 +676,224 @@ public class Compiler
 
 
 
-    class AdjustStack implements CodeVisitor<Void> {
-
-        public Void visit (Store c) {
-            decStack(c.type);
-            return null;
-        }
-
-        public Void visit (Load c) {
-            incStack(c.type);
-            return null;
-        }
+    /**FUNCTIONS AND TOOLS*/
 
-        public Void visit (IConst c) {
-            incStack(new Type_int());
-            return null;
-        }
+    // return f(...) in f: the arguments are all evaluated first, then they
+    // replace the parameters and the function starts over in the same frame
+    private void tailCall(EApp app) {
+        genArgs(app.listexp_, currentFun.listarg_, STM_RETURN);
 
-        // exclude double for now
-        public Void visit (DConst c) {
-            // incStack(new Type_double());
-            return null;
+        // the parameters come first in the locals
+        int[] addr = new int[currentFun.listarg_.size()];
+        int next = 0;
+        for (int i = 0; i < addr.length; i++) {
+            addr[i] = next;
+            next = next + ((ADecl) currentFun.listarg_.get(i)).type_.accept(new Size(), null);
         }
-
-        public Void visit (Dup c) {
-            incStack(c.type);
-            return null;
+        // the last argument is on top of the stack
+        for (int i = addr.length - 1; i >= 0; i--) {
+            Type t = ((ADecl) currentFun.listarg_.get(i)).type_;
+            emit(CodeBuffer.STORE, CodeBuffer.tag(t), addr[i]);
         }
+        emit(CodeBuffer.GOTO, CodeBuffer.VOID, lStart);
+    }
 
-        public Void visit (Pop c) {
-            decStack(c.type);
-            return null;
-        }
+    // the body of the function in place of the call: the arguments go to
+    // fresh locals, and every return jumps to the end with its value
+    private void inline(DFun fun, EApp app, String arg) {
+        genArgs(app.listexp_, fun.listarg_, arg);
 
-        public Void visit (Return c) {
-            return null;
+        addBlockLevel();
+        int[] addr = new int[fun.listarg_.size()];
+        for (int i = 0; i < addr.length; i++) {
+            ADecl d = (ADecl) fun.listarg_.get(i);
+            newVar(d.id_, d.type_);
+            addr[i] = lookupVar(d.id_);
         }
-
-        public Void visit (Call c) {
-            return null;
+        // the last argument is on top of the stack
+        for (int i = addr.length - 1; i >= 0; i--) {
+            Type t = ((ADecl) fun.listarg_.get(i)).type_;
+            emit(CodeBuffer.STORE, CodeBuffer.tag(t), addr[i]);
         }
 
-        public Void visit (Label c) {
-            return null;
+        int lEnd = makeNewLabel();
+        addLabelAddress();
+        inlineExits.push(lEnd);
+        inlineTypes.push(CodeBuffer.tag(fun.type_));
+        for (Stm s: fun.liststm_) {
+            s.accept(new StmVisitor(), STM_BLOCK);
         }
+        inlineExits.pop();
+        inlineTypes.pop();
 
-        public Void visit (Goto c) {
-            return null;
+        // falling off the end of the body, like the trailing return
+        if(DeadCodeEliminator.completes(fun.liststm_) && CodeBuffer.tag(fun.type_) != CodeBuffer.VOID) {
+            pushZero(CodeBuffer.tag(fun.type_));
         }
+        emit(CodeBuffer.LABEL, CodeBuffer.VOID, lEnd);
+        removeTopBlock();
+    }
 
-        public Void visit (IfZ c) {
-            return null;
+    // small functions that cannot reach themselves through calls
+    private Map<String,DFun> inlineCandidates(PDefs p) {
+        Map<String,DFun> funs = new TreeMap<>();
+        Map<String,Set<String>> calls = new TreeMap<>();
+        for (Def d: p.listdef_) {
+            DFun f = (DFun) d;
+            funs.put(f.id_, f);
+            calls.put(f.id_, f.accept(new Calls(), null));
+        }
+
+        Map<String,DFun> candidates = new TreeMap<>();
+        if(inlineLimit <= 0) return candidates;
+        for (DFun f: funs.values()) {
+            if(f.id_.equals("main") || f.accept(new NodeCount(), null) > inlineLimit) continue;
+
+            // everything f calls, directly or not
+            Set<String> reached = new TreeSet<>();
+            LinkedList<String> todo = new LinkedList<>(calls.get(f.id_));
+            while(!todo.isEmpty()) {
+                String g = todo.pop();
+                if(calls.containsKey(g) && reached.add(g)) todo.addAll(calls.get(g));
+            }
+            if(!reached.contains(f.id_)) candidates.put(f.id_, f);
         }
+        return candidates;
+    }
 
-        public Void visit (IfNZ c) {
-            return null;
+    // names of the functions called in a tree
+    class Calls extends CPP.FoldVisitor<Set<String>,Void> {
+        public Set<String> visit(EApp p, Void arg) {
+            Set<String> r = super.visit(p, arg);
+            r.add(p.id_);
+            return r;
         }
-
-        public Void visit (IfEq c) {
-            return null;
+        public Set<String> leaf(Void arg) {
+            return new TreeSet<>();
         }
-
-        public Void visit (IfNe c) {
-            return null;
+        public Set<String> combine(Set<String> x, Set<String> y, Void arg) {
+            x.addAll(y);
+            return x;
         }
+    }
 
-        public Void visit (IfLt c) {
-            return null;
+    // number of nodes in a tree
+    class NodeCount extends CPP.FoldVisitor<Integer,Void> {
+        public Integer leaf(Void arg) {
+            return 1;
         }
-
-        public Void visit (IfGt c) {
-            return null;
+        public Integer combine(Integer x, Integer y, Void arg) {
+            return x + y;
         }
+    }
 
-        public Void visit (IfLe c) {
-            return null;
-        }
+    private boolean isSelfCall(Exp e) {
+        return e instanceof EApp && ((EApp) e).id_.equals(currentFun.id_);
+    }
 
-        public Void visit (IfGe c) {
-            return null;
+    // true if the function has a return f(...) that calls itself
+    class SelfTailCall extends CPP.FoldVisitor<Boolean,Void> {
+        private String fun;
+        public Boolean visit(DFun p, Void arg) {
+            fun = p.id_;
+            return super.visit(p, arg);
         }
-
-        public Void visit (DGt c) {
-            return null;
+        public Boolean visit(SReturn p, Void arg) {
+            return p.exp_ instanceof EApp && ((EApp) p.exp_).id_.equals(fun);
         }
-
-        public Void visit (DLt c) {
-            return null;
+        public Boolean leaf(Void arg) {
+            return false;
         }
-
-        public Void visit (Inc c) {
-            return null;
+        public Boolean combine(Boolean x, Boolean y, Void arg) {
+            return x || y;
         }
+    }
+    void emit (int op, int type, int operand) {
+        code.add(op, type, operand, 0);
+    }
 
-        public Void visit (Add c) {
-            decStack(c.type);
-            return null;
-        }
+    void emitInc (int addr, int delta) {
+        code.add(CodeBuffer.INC, CodeBuffer.INT, addr, delta);
+    }
 
-        public Void visit (Sub c) {
-            decStack(c.type);
-            return null;
-        }
+    void emitCall (Fun fun, boolean builtin) {
+        code.call(fun, builtin);
+    }
 
-        public Void visit (Mul c) {
-            decStack(c.type);
-            return null;
-        }
+    void newVar(String x, Type t) {
+        addrs.put(x,nextLocal);
 
-        public Void visit (Div c) {
-            decStack(c.type);
-            return null;
-        }
+        // doubles take two slots
+        nextLocal = nextLocal + t.accept(new Size(), null);
+        if (nextLocal > limitLocals) limitLocals = nextLocal;
     }
 
+    private void popStack(int t) {
+        emit(CodeBuffer.POP, t, 0);
+    }
 
+    // the default value of a type, for functions that fall off their end
+    private void pushZero(int t) {
+        if(t == CodeBuffer.DOUBLE) code.dconst(0.0);
+        else emit(CodeBuffer.ICONST, CodeBuffer.INT, 0);
+    }
 
+    /**evaluates exp and leaves its value on the stack as type to,
+     * which may need an int to be converted to double*/
+    private void genExp(Exp exp, int to, String arg) {
+        String id = exp.accept(new ExpVisitor(), arg);
+        int from = typeOf(exp);
+        loadVariable(from, id);
+        if(from == CodeBuffer.INT && to == CodeBuffer.DOUBLE)
+            emit(CodeBuffer.I2D, CodeBuffer.DOUBLE, 0);
+    }
 
-
-    /**FUNCTIONS AND TOOLS*/
-    void emit (Code c) {
-        output.add(c.accept(new CodeToJVM()));
-        adjustStack(c);
+    // the arguments of a call, each as the type of its parameter
+    private void genArgs(ListExp exps, List<Arg> params, String arg) {
+        for (int i = 0; i < exps.size(); i++) {
+            genExp(exps.get(i), CodeBuffer.tag(((ADecl) params.get(i)).type_), arg);
+        }
     }
 
-    void newVar(String x, Type t) {
-        cxt.get(0).put(x,t);
-        addrs.get(0).put(x,nextLocal);
+    // x++, x--, ++x, --x; post leaves the old value
+    private void genIncrement(String id, int t, int delta, boolean post) {
+        int addr = lookupVar(id);
+        if(t == CodeBuffer.INT) {
+            if(post) emit(CodeBuffer.LOAD, CodeBuffer.INT, addr);
+            emitInc(addr, delta);
+            if(!post) emit(CodeBuffer.LOAD, CodeBuffer.INT, addr);
+            return;
+        }
+        // there is no iinc for doubles
+        emit(CodeBuffer.LOAD, t, addr);
+        if(post) emit(CodeBuffer.DUP, t, 0);
+        code.dconst(delta);
+        emit(CodeBuffer.ADD, t, 0);
+        if(!post) emit(CodeBuffer.DUP, t, 0);
+        emit(CodeBuffer.STORE, t, addr);
+    }
 
-        // increase the size of local var stack
-        ++limitLocals;
-        nextLocal = nextLocal + t.accept(new Size(), null);
+    /**type tag of the value of an expression, as the type checker found it*/
+    private int typeOf(Exp e) {
+        return CodeBuffer.tag(types.typeOf(e));
     }
 
-    private void popStack() {
-        Type t = new Type_int();
-        emit(new Pop(t));
+    // the type two operands are compared or computed in
+    private int numeric(Exp exp1, Exp exp2) {
+        return typeOf(exp1) == CodeBuffer.DOUBLE || typeOf(exp2) == CodeBuffer.DOUBLE
+                ? CodeBuffer.DOUBLE : CodeBuffer.INT;
     }
 
-    // really robust implementation
-    // assuming that the increment ops
-    // are not immediately evaluated at the same line
-    private void popUnusedLoad() {
-        String load1 = output.get(output.size()-1);
-        String load2 = output.get(output.size()-2);
-        if(load1.contains("iload") && load2.contains("iinc")) {
-            popStack();
-        } else if(load2.contains("iload") && load1.contains("iinc")) {
-            popStack();
-        }
+    // every expression leaves its value on the stack, except calls of void functions
+    private boolean leavesValue(Exp e) {
+        return typeOf(e) != CodeBuffer.VOID;
     }
 
-    private boolean loadVariable(Type t, String id) {
+    private boolean loadVariable(int t, String id) {
         if(id != null) {
             int addr = lookupVar(id);
             if(addr != -1) {
-                emit(new Load(t, addr));
+                emit(CodeBuffer.LOAD, t, addr);
                 return true;
             } else {
                 return false;
@@ -724,24 +904,8 @@ public class Compiler
     }
 
     Integer lookupVar (String id) {
-        if(addrs.get(0).containsKey(id)) {
-            return addrs.get(0).get(id);
-        }
-        return -1;
-    }
-
-    // update limitStack, currentStack according to instruction
-    void adjustStack(Code c) {
-        c.accept(new AdjustStack());
-    }
-
-    void incStack(Type t) {
-        currentStack = currentStack + t.accept(new Size(), null);
-        if (currentStack > limitStack) limitStack = currentStack;
-    }
-
-    void decStack(Type t) {
-        currentStack = currentStack - t.accept(new Size(), null);
+        Integer addr = addrs.get(id);
+        return addr != null ? addr : -1;
     }
 
     class Size implements Type.Visitor<Integer,Void> {
@@ -756,139 +920,134 @@ public class Compiler
             return 0;
         }
 
-        // exclude double for now
         public Integer visit (Type_double t, Void arg) {
           return 2;
         }
     }
 
     private void addBlockLevel() {
-        // copy the outer scope to the new scope
-        Map<String,Type> vars = cxt.get(0);
-        Map<String,Integer> addr = addrs.get(0);
-
-        // add new index on top and set value
-        cxt.add(0, new TreeMap<>(vars));
-        addrs.add(0, new TreeMap<>(addr));
+        addrs.enterScope();
+        blockLocals.push(nextLocal);
     }
 
     private void removeTopBlock() {
-        Map<String,Type> vars = cxt.get(1);
-        Map<String,Integer> addr = addrs.get(1);
-
-        // just override the top block
-        // with scope one level up of it
-        cxt.set(0, new TreeMap<>(vars));
-        // clean the next index
-        cxt.remove(1);
+        // the outer variables of the same names are visible again
+        addrs.exitScope();
 
-        addrs.set(0, new TreeMap<>(addr));
-        addrs.remove(1);
+        // the variables of the block are gone, reuse their slots
+        nextLocal = blockLocals.pop();
     }
 
     public void addLabelAddress() {
         currentLabel++;
     }
 
-    public Label makeNewLabel() {
-        return new Label(currentLabel);
+    public int makeNewLabel() {
+        return currentLabel;
     }
 
-    // TODO
-    public void lazyEvaluation(Exp exp, String arg) {
-        if(exp instanceof EAnd) {
-            genEAndBranch(exp, arg);
-        } else if(exp instanceof EOr) {
-            genEOrBranch(exp, arg);
-        }
-    }
-
-    private void genEAndBranch(Exp exp, String arg) {
-        EAnd eAnd = (EAnd) exp;
-
-        String id1 = eAnd.exp_1.accept(new ExpVisitor(), arg);
-        loadVariable(new Type_int(), id1);
-
-        Label lFalse = makeNewLabel();
+    /**pushes 1 if the boolean expression holds and 0 if not*/
+    private void genBooleanValue(Exp exp, String arg) {
+        int lFalse = makeNewLabel();
         addLabelAddress();
-        Label lOut = makeNewLabel();
+        int lOut = makeNewLabel();
         addLabelAddress();
-        emit(new IfNe(new Type_bool(), lFalse));// ifeq
-
-        String id2 = eAnd.exp_2.accept(new ExpVisitor(), arg);
-        loadVariable(new Type_int(), id2);
-        emit(new IfNe(new Type_bool(), lFalse));// ifeq
-        emit(new IConst(1));
-        emit(new Goto(lOut));
-
-        emit(lFalse);
-        emit(new IConst(0));
-        emit(new Goto(lOut));
 
-        emit(lOut);
+        jumpIf(exp, false, lFalse, arg);
+        emit(CodeBuffer.ICONST, CodeBuffer.INT, 1);
+        emit(CodeBuffer.GOTO, CodeBuffer.VOID, lOut);
+        emit(CodeBuffer.LABEL, CodeBuffer.VOID, lFalse);
+        emit(CodeBuffer.ICONST, CodeBuffer.INT, 0);
+        emit(CodeBuffer.LABEL, CodeBuffer.VOID, lOut);
     }
 
-    private void genEOrBranch(Exp exp, String arg) {
-        EOr eOr = (EOr) exp;
-
-        String id1 = eOr.exp_1.accept(new ExpVisitor(), arg);
-        loadVariable(new Type_int(), id1);
-
-        Label lTrue = makeNewLabel();
-        addLabelAddress();
-        Label lOut = makeNewLabel();
-        addLabelAddress();
-        emit(new IfEq(new Type_bool(), lTrue));// ifne
-
-        String id2 = eOr.exp_2.accept(new ExpVisitor(), arg);
-        loadVariable(new Type_int(), id2);
-        emit(new IfEq(new Type_bool(), lTrue));// ifne
-
-        emit(new IConst(0));
-        emit(new Goto(lOut));
-
-        emit(lTrue);
-        emit(new IConst(1));
-        emit(new Goto(lOut));
+    /**jumps to label if the boolean expression evaluates to value
+     * and falls through if not, without pushing its value first*/
+    private void jumpIf(Exp exp, boolean value, int label, String arg) {
+        if(exp instanceof ETrue) {
+            if(value) emit(CodeBuffer.GOTO, CodeBuffer.VOID, label);
+        } else if(exp instanceof EFalse) {
+            if(!value) emit(CodeBuffer.GOTO, CodeBuffer.VOID, label);
+        } else if(exp instanceof ELt) {
+            ELt e = (ELt) exp;
+            compare(e.exp_1, e.exp_2, value ? CodeBuffer.IFLT : CodeBuffer.IFGE, CodeBuffer.DGT, label, arg);
+        } else if(exp instanceof EGt) {
+            EGt e = (EGt) exp;
+            compare(e.exp_1, e.exp_2, value ? CodeBuffer.IFGT : CodeBuffer.IFLE, CodeBuffer.DLT, label, arg);
+        } else if(exp instanceof ELtEq) {
+            ELtEq e = (ELtEq) exp;
+            compare(e.exp_1, e.exp_2, value ? CodeBuffer.IFLE : CodeBuffer.IFGT, CodeBuffer.DGT, label, arg);
+        } else if(exp instanceof EGtEq) {
+            EGtEq e = (EGtEq) exp;
+            compare(e.exp_1, e.exp_2, value ? CodeBuffer.IFGE : CodeBuffer.IFLT, CodeBuffer.DLT, label, arg);
+        } else if(exp instanceof EEq) {
+            EEq e = (EEq) exp;
+            compare(e.exp_1, e.exp_2, value ? CodeBuffer.IFEQ : CodeBuffer.IFNE, CodeBuffer.DLT, label, arg);
+        } else if(exp instanceof ENEq) {
+            ENEq e = (ENEq) exp;
+            compare(e.exp_1, e.exp_2, value ? CodeBuffer.IFNE : CodeBuffer.IFEQ, CodeBuffer.DLT, label, arg);
+        } else if(exp instanceof EAnd) {
+            // short circuit: a false exp1 decides the whole expression
+            EAnd e = (EAnd) exp;
+            if(value) {
+                int lSkip = makeNewLabel();
+                addLabelAddress();
+                jumpIf(e.exp_1, false, lSkip, arg);
+                jumpIf(e.exp_2, true, label, arg);
+                emit(CodeBuffer.LABEL, CodeBuffer.VOID, lSkip);
+            } else {
+                jumpIf(e.exp_1, false, label, arg);
+                jumpIf(e.exp_2, false, label, arg);
+            }
+        } else if(exp instanceof EOr) {
+            // short circuit: a true exp1 decides the whole expression
+            EOr e = (EOr) exp;
+            if(value) {
+                jumpIf(e.exp_1, true, label, arg);
+                jumpIf(e.exp_2, true, label, arg);
+            } else {
+                int lSkip = makeNewLabel();
+                addLabelAddress();
+                jumpIf(e.exp_1, true, lSkip, arg);
+                jumpIf(e.exp_2, false, label, arg);
+                emit(CodeBuffer.LABEL, CodeBuffer.VOID, lSkip);
+            }
+        } else {
+            // variables, calls and assignments: test the value
+            genExp(exp, CodeBuffer.BOOL, arg);
+            emit(value ? CodeBuffer.IFEQ : CodeBuffer.IFNE, CodeBuffer.BOOL, label);// ifne, ifeq
+        }
+    }
 
-        emit(lOut);
+    // one if_icmpXX that jumps to label, or for doubles dcmp and one ifXX;
+    // dcmp is DGT (dcmpg) or DLT (dcmpl), whichever makes a NaN operand
+    // give false for the comparison as written
+    private void compare(Exp exp1, Exp exp2, int op, int dcmp, int label, String arg) {
+        int t = numeric(exp1, exp2);
+        genExp(exp1, t, arg);
+        genExp(exp2, t, arg);
+
+        if(t == CodeBuffer.DOUBLE)
+            emit(dcmp, CodeBuffer.DOUBLE, 0);
+        emit(op, t, label);
     }
 
-    private void genBooleanBranch(Exp exp) {
-        // TODO
-        Type t = new Type_int();
-        Label lTrue = makeNewLabel();
-        addLabelAddress();
-        Label lFalse = makeNewLabel();
-        addLabelAddress();
-        Label lOut = makeNewLabel();
-        addLabelAddress();
 
-        if(exp instanceof CPP.Absyn.ELt) {
-            emit(new IfLt(t, lTrue));
-        } else if(exp instanceof CPP.Absyn.EGt) {
-            emit(new IfGt(t, lTrue));
-        } else if(exp instanceof CPP.Absyn.ELtEq) {
-            emit(new IfLe(t, lTrue));
-        } else if(exp instanceof CPP.Absyn.EGtEq) {
-            emit(new IfGe(t, lTrue));
-        } else if(exp instanceof CPP.Absyn.EEq) {
-            emit(new IfEq(t, lTrue));
-        } else if(exp instanceof CPP.Absyn.ENEq) {
-            emit(new IfNe(t, lTrue));
-        }
-        emit(new Goto(lFalse));
 
-        emit(lTrue);
-        emit(new IConst(1));
-        emit(new Goto(lOut));
-        emit(lFalse);
-        emit(new IConst(0));
-        emit(new Goto(lOut));
-        emit(lOut);
+    private ListArg singleArg(Type t) {
+        ListArg l = new ListArg();
+        l.add(new ADecl(t, "x"));
+        return l;
     }
 
-
+    /**main([Ljava/lang/String;)V for the class file, same as in boilerPlateConst*/
+    private MethodInfo mainWrapper() {
+        CodeBuffer wrapper = new CodeBuffer();
+        wrapper.call(sig.get("main"), false);
+        wrapper.add(CodeBuffer.POP, CodeBuffer.INT, 0, 0);
+        wrapper.add(CodeBuffer.RETURN, CodeBuffer.VOID, 0, 0);
+        return new MethodInfo("main", "([Ljava/lang/String;)V", 1, 1, wrapper);
+    }
 
     /**code to be added at the beginning of the jasmin code*/
     private String boilerPlateConst(String className) {
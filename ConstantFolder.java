@@ -0,0 +1,385 @@
+import CPP.Absyn.*;
+import CPP.ComposVisitor;
+import CPP.FoldVisitor;
+
+import java.util.*;
+
+/**
+ * Folds constant subexpressions and propagates the values of variables
+ * that are known to be constant, before the code is generated.
+ *
+ * Only int and bool values are folded. Int arithmetic wraps around like
+ * iadd and imul do, and a division by a constant 0 is left in the code so
+ * it still throws when it runs. An if/else with a constant condition is
+ * replaced by the branch that is taken, and a while loop whose condition
+ * is false is removed.
+ *
+ * The tree is rebuilt by the ComposVisitor, the original is not changed.
+ */
+class ConstantFolder extends ComposVisitor<Void> implements PassManager.ProgramPass {
+
+    // value of a variable that is not an int or a bool
+    private static final Object UNTRACKED = new Object();
+
+    // Values of the variables in scope, innermost block first.
+    // null means the value is not known.
+    private LinkedList<Map<String,Object>> env;
+
+    public String name () {
+        return "fold";
+    }
+
+    public Program run (Program p) {
+        return p.accept(this, null);
+    }
+
+    public Def visit(DFun p, Void arg)
+    {
+        env = new LinkedList<>();
+        env.push(new HashMap<>());
+        for (Arg a: p.listarg_) {
+            ADecl d = (ADecl) a;
+            declare(d.id_, d.type_, null);
+        }
+        ListStm liststm_ = new ListStm();
+        for (Stm s: p.liststm_) {
+            liststm_.add(s.accept(this, arg));
+        }
+        return new DFun(p.type_, p.id_, p.listarg_, liststm_);
+    }
+
+    ////////////////////////////// Statements //////////////////////////////
+
+    public Stm visit(SDecls p, Void arg)
+    {
+        for (String x: p.listid_) {
+            declare(x, p.type_, null);
+        }
+        return p;
+    }
+
+    public Stm visit(SInit p, Void arg)
+    {
+        Exp exp_ = p.exp_.accept(this, arg);
+        declare(p.id_, p.type_, valueOf(exp_));
+        return new SInit(p.type_, p.id_, exp_);
+    }
+
+    public Stm visit(SBlock p, Void arg)
+    {
+        env.push(new HashMap<>());
+        Stm block = super.visit(p, arg);
+        env.pop();
+        return block;
+    }
+
+    public Stm visit(SWhile p, Void arg)
+    {
+        // nothing assigned in the loop is known at the top of the loop
+        Set<String> assigned = p.accept(new AssignedVars(), null);
+        for (String x: assigned) {
+            assign(x, null);
+        }
+
+        Exp exp_ = p.exp_.accept(this, arg);
+        if (exp_ instanceof EFalse) {
+            return new SBlock(new ListStm());
+        }
+
+        env.push(new HashMap<>());
+        Stm stm_ = p.stm_.accept(this, arg);
+        env.pop();
+
+        // the body may assign variables that it did not declare itself
+        for (String x: assigned) {
+            assign(x, null);
+        }
+        return new SWhile(exp_, stm_);
+    }
+
+    public Stm visit(SIfElse p, Void arg)
+    {
+        Exp exp_ = p.exp_.accept(this, arg);
+        if (exp_ instanceof ETrue) return branch(p.stm_1, arg);
+        if (exp_ instanceof EFalse) return branch(p.stm_2, arg);
+
+        LinkedList<Map<String,Object>> before = copy(env);
+        Stm stm_1 = branch(p.stm_1, arg);
+        LinkedList<Map<String,Object>> afterTrue = env;
+        env = before;
+        Stm stm_2 = branch(p.stm_2, arg);
+
+        // after the if, only what both branches agree on is known
+        for (int i = 0; i < env.size(); i++) {
+            Map<String,Object> scope = env.get(i);
+            Map<String,Object> other = afterTrue.get(i);
+            for (Map.Entry<String,Object> e: scope.entrySet()) {
+                if (!Objects.equals(e.getValue(), other.get(e.getKey()))) e.setValue(null);
+            }
+        }
+        return new SIfElse(exp_, stm_1, stm_2);
+    }
+
+    // a branch is a scope of its own, even if it is no block
+    private Stm branch(Stm s, Void arg) {
+        env.push(new HashMap<>());
+        Stm stm = s.accept(this, arg);
+        env.pop();
+        if (stm instanceof SBlock) return stm;
+
+        ListStm block = new ListStm();
+        block.add(stm);
+        return new SBlock(block);
+    }
+
+    ////////////////////////////// Expressions //////////////////////////////
+
+    public Exp visit(EId p, Void arg)
+    {
+        return constant(lookup(p.id_), p);
+    }
+
+    public Exp visit(EAss p, Void arg)
+    {
+        Exp exp_2 = p.exp_2.accept(this, arg);
+        if (p.exp_1 instanceof EId) assign(((EId) p.exp_1).id_, valueOf(exp_2));
+        return new EAss(p.exp_1, exp_2);
+    }
+
+    // the variable is updated, not read, so it is not replaced
+    public Exp visit(EPostIncr p, Void arg) { return increment(p.exp_, p); }
+    public Exp visit(EPostDecr p, Void arg) { return increment(p.exp_, p); }
+    public Exp visit(EPreIncr p, Void arg) { return increment(p.exp_, p); }
+    public Exp visit(EPreDecr p, Void arg) { return increment(p.exp_, p); }
+
+    private Exp increment(Exp x, Exp p) {
+        if (x instanceof EId) assign(((EId) x).id_, null);
+        return p;
+    }
+
+    public Exp visit(EPlus p, Void arg)
+    {
+        Exp exp_1 = p.exp_1.accept(this, arg);
+        Exp exp_2 = p.exp_2.accept(this, arg);
+        if (exp_1 instanceof EInt && exp_2 instanceof EInt) {
+            return new EInt(intOf(exp_1) + intOf(exp_2));
+        }
+        return new EPlus(exp_1, exp_2);
+    }
+
+    public Exp visit(EMinus p, Void arg)
+    {
+        Exp exp_1 = p.exp_1.accept(this, arg);
+        Exp exp_2 = p.exp_2.accept(this, arg);
+        if (exp_1 instanceof EInt && exp_2 instanceof EInt) {
+            return new EInt(intOf(exp_1) - intOf(exp_2));
+        }
+        return new EMinus(exp_1, exp_2);
+    }
+
+    public Exp visit(ETimes p, Void arg)
+    {
+        Exp exp_1 = p.exp_1.accept(this, arg);
+        Exp exp_2 = p.exp_2.accept(this, arg);
+        if (exp_1 instanceof EInt && exp_2 instanceof EInt) {
+            return new EInt(intOf(exp_1) * intOf(exp_2));
+        }
+        return new ETimes(exp_1, exp_2);
+    }
+
+    public Exp visit(EDiv p, Void arg)
+    {
+        Exp exp_1 = p.exp_1.accept(this, arg);
+        Exp exp_2 = p.exp_2.accept(this, arg);
+        // x / 0 must still throw ArithmeticException at run time
+        if (exp_1 instanceof EInt && exp_2 instanceof EInt && intOf(exp_2) != 0) {
+            return new EInt(intOf(exp_1) / intOf(exp_2));
+        }
+        return new EDiv(exp_1, exp_2);
+    }
+
+    public Exp visit(ELt p, Void arg)
+    {
+        Exp exp_1 = p.exp_1.accept(this, arg);
+        Exp exp_2 = p.exp_2.accept(this, arg);
+        if (exp_1 instanceof EInt && exp_2 instanceof EInt) {
+            return bool(intOf(exp_1) < intOf(exp_2));
+        }
+        return new ELt(exp_1, exp_2);
+    }
+
+    public Exp visit(EGt p, Void arg)
+    {
+        Exp exp_1 = p.exp_1.accept(this, arg);
+        Exp exp_2 = p.exp_2.accept(this, arg);
+        if (exp_1 instanceof EInt && exp_2 instanceof EInt) {
+            return bool(intOf(exp_1) > intOf(exp_2));
+        }
+        return new EGt(exp_1, exp_2);
+    }
+
+    public Exp visit(ELtEq p, Void arg)
+    {
+        Exp exp_1 = p.exp_1.accept(this, arg);
+        Exp exp_2 = p.exp_2.accept(this, arg);
+        if (exp_1 instanceof EInt && exp_2 instanceof EInt) {
+            return bool(intOf(exp_1) <= intOf(exp_2));
+        }
+        return new ELtEq(exp_1, exp_2);
+    }
+
+    public Exp visit(EGtEq p, Void arg)
+    {
+        Exp exp_1 = p.exp_1.accept(this, arg);
+        Exp exp_2 = p.exp_2.accept(this, arg);
+        if (exp_1 instanceof EInt && exp_2 instanceof EInt) {
+            return bool(intOf(exp_1) >= intOf(exp_2));
+        }
+        return new EGtEq(exp_1, exp_2);
+    }
+
+    public Exp visit(EEq p, Void arg)
+    {
+        Exp exp_1 = p.exp_1.accept(this, arg);
+        Exp exp_2 = p.exp_2.accept(this, arg);
+        Object v1 = valueOf(exp_1);
+        Object v2 = valueOf(exp_2);
+        if (v1 != null && v2 != null) return bool(v1.equals(v2));
+        return new EEq(exp_1, exp_2);
+    }
+
+    public Exp visit(ENEq p, Void arg)
+    {
+        Exp exp_1 = p.exp_1.accept(this, arg);
+        Exp exp_2 = p.exp_2.accept(this, arg);
+        Object v1 = valueOf(exp_1);
+        Object v2 = valueOf(exp_2);
+        if (v1 != null && v2 != null) return bool(!v1.equals(v2));
+        return new ENEq(exp_1, exp_2);
+    }
+
+    public Exp visit(EAnd p, Void arg)
+    {
+        Exp exp_1 = p.exp_1.accept(this, arg);
+        if (exp_1 instanceof EFalse) return exp_1;
+
+        // exp2 only runs sometimes, what it assigns is not known after
+        Set<String> assigned = p.exp_2.accept(new AssignedVars(), null);
+        Exp exp_2 = p.exp_2.accept(this, arg);
+        for (String x: assigned) {
+            assign(x, null);
+        }
+
+        if (exp_1 instanceof ETrue) return exp_2;
+        if (exp_2 instanceof ETrue) return exp_1;
+        return new EAnd(exp_1, exp_2);
+    }
+
+    public Exp visit(EOr p, Void arg)
+    {
+        Exp exp_1 = p.exp_1.accept(this, arg);
+        if (exp_1 instanceof ETrue) return exp_1;
+
+        Set<String> assigned = p.exp_2.accept(new AssignedVars(), null);
+        Exp exp_2 = p.exp_2.accept(this, arg);
+        for (String x: assigned) {
+            assign(x, null);
+        }
+
+        if (exp_1 instanceof EFalse) return exp_2;
+        if (exp_2 instanceof EFalse) return exp_1;
+        return new EOr(exp_1, exp_2);
+    }
+
+    ////////////////////////////// Values //////////////////////////////
+
+    private static int intOf(Exp e) {
+        return ((EInt) e).integer_;
+    }
+
+    private static Exp bool(boolean b) {
+        return b ? new ETrue() : new EFalse();
+    }
+
+    // Integer or Boolean for a constant, null otherwise
+    private static Object valueOf(Exp e) {
+        if (e instanceof EInt) return ((EInt) e).integer_;
+        if (e instanceof ETrue) return Boolean.TRUE;
+        if (e instanceof EFalse) return Boolean.FALSE;
+        return null;
+    }
+
+    private static Exp constant(Object value, Exp otherwise) {
+        if (value instanceof Integer) return new EInt((Integer) value);
+        if (value instanceof Boolean) return bool((Boolean) value);
+        return otherwise;
+    }
+
+    private void declare(String x, Type t, Object value) {
+        boolean tracked = t instanceof Type_int || t instanceof Type_bool;
+        env.peek().put(x, tracked ? value : UNTRACKED);
+    }
+
+    private void assign(String x, Object value) {
+        for (Map<String,Object> scope: env) {
+            if (scope.containsKey(x)) {
+                if (scope.get(x) != UNTRACKED) scope.put(x, value);
+                return;
+            }
+        }
+    }
+
+    private Object lookup(String x) {
+        for (Map<String,Object> scope: env) {
+            if (scope.containsKey(x)) return scope.get(x);
+        }
+        return null;
+    }
+
+    private static LinkedList<Map<String,Object>> copy(List<Map<String,Object>> env) {
+        LinkedList<Map<String,Object>> copy = new LinkedList<>();
+        for (Map<String,Object> scope: env) {
+            copy.add(new HashMap<>(scope));
+        }
+        return copy;
+    }
+}
+
+
+
+/**
+ * Names of the variables that a statement or expression assigns,
+ * with = or with ++ and --.
+ */
+class AssignedVars extends FoldVisitor<Set<String>,Void> {
+
+    public Set<String> leaf(Void arg) {
+        return new HashSet<>();
+    }
+
+    public Set<String> combine(Set<String> x, Set<String> y, Void arg) {
+        x.addAll(y);
+        return x;
+    }
+
+    public Set<String> visit(EAss p, Void arg) {
+        return target(p.exp_1, super.visit(p, arg));
+    }
+    public Set<String> visit(EPostIncr p, Void arg) {
+        return target(p.exp_, super.visit(p, arg));
+    }
+    public Set<String> visit(EPostDecr p, Void arg) {
+        return target(p.exp_, super.visit(p, arg));
+    }
+    public Set<String> visit(EPreIncr p, Void arg) {
+        return target(p.exp_, super.visit(p, arg));
+    }
+    public Set<String> visit(EPreDecr p, Void arg) {
+        return target(p.exp_, super.visit(p, arg));
+    }
+
+    private Set<String> target(Exp x, Set<String> vars) {
+        if (x instanceof EId) vars.add(((EId) x).id_);
+        return vars;
+    }
+}
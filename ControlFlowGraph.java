@@ -0,0 +1,211 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The basic blocks of the code of one method, with the edges between
+ * them and their dominators.
+ *
+ * A block starts at the first instruction, at every label and after every
+ * jump or return, and runs up to the next such point. The blocks keep the
+ * order of the code, so blocks.get(0) is the entry and a block that does
+ * not end in a goto or a return falls through to the next one.
+ */
+class ControlFlowGraph {
+
+    final CodeBuffer code;
+    final List<BasicBlock> blocks = new ArrayList<>();
+
+    // immediate dominator of every block by index, -1 for the entry and
+    // for blocks that cannot be reached
+    private int[] idom;
+
+    public ControlFlowGraph (CodeBuffer code) {
+        this.code = code;
+        split();
+        connect();
+        computeDominators();
+    }
+
+    public BasicBlock entry () {
+        return blocks.get(0);
+    }
+
+    /**the block that dominates b most closely, or null for the entry*/
+    public BasicBlock idom (BasicBlock b) {
+        return idom[b.index] < 0 ? null : blocks.get(idom[b.index]);
+    }
+
+    /**true if every path from the entry to b goes through a*/
+    public boolean dominates (BasicBlock a, BasicBlock b) {
+        if (!b.reachable) return false;
+        for (int i = b.index; i >= 0; i = idom[i]) {
+            if (i == a.index) return true;
+        }
+        return false;
+    }
+
+    /**the reachable blocks, every block before its successors except along back edges*/
+    public List<BasicBlock> reversePostorder () {
+        List<BasicBlock> order = new ArrayList<>();
+        if (blocks.isEmpty()) return order;
+        // depth first without recursion, methods can have many blocks
+        boolean[] seen = new boolean[blocks.size()];
+        BasicBlock[] stack = new BasicBlock[blocks.size()];
+        int[] next = new int[blocks.size()];
+        int depth = 0;
+        stack[depth++] = entry();
+        seen[0] = true;
+        while (depth > 0) {
+            BasicBlock b = stack[depth - 1];
+            if (next[depth - 1] < b.succs.size()) {
+                BasicBlock s = b.succs.get(next[depth - 1]++);
+                if (!seen[s.index]) {
+                    seen[s.index] = true;
+                    next[depth] = 0;
+                    stack[depth++] = s;
+                }
+            } else {
+                order.add(b);
+                depth--;
+            }
+        }
+        java.util.Collections.reverse(order);
+        return order;
+    }
+
+    /**the code of the blocks in their order, leaving out the ones that cannot be reached*/
+    public CodeBuffer toCode () {
+        CodeBuffer out = new CodeBuffer();
+        for (BasicBlock b: blocks) {
+            if (!b.reachable) continue;
+            for (int i = b.start; i < b.end; i++) {
+                out.append(code, i);
+            }
+        }
+        return out;
+    }
+
+    ////////////////////////////// Construction //////////////////////////////
+
+    private void split () {
+        int start = 0;
+        for (int i = 0; i < code.size(); i++) {
+            int op = code.op(i);
+            if (op == CodeBuffer.LABEL && i > start) {
+                addBlock(start, i);
+                start = i;
+            }
+            if (StackAnalysis.isJump(op) || op == CodeBuffer.RETURN) {
+                addBlock(start, i + 1);
+                start = i + 1;
+            }
+        }
+        if (start < code.size() || blocks.isEmpty()) {
+            addBlock(start, code.size());
+        }
+    }
+
+    private void addBlock (int start, int end) {
+        int label = start < end && code.op(start) == CodeBuffer.LABEL ? code.operand(start) : -1;
+        blocks.add(new BasicBlock(blocks.size(), start, end, label));
+    }
+
+    private void connect () {
+        // block of every label
+        int[] labelBlock = new int[0];
+        for (BasicBlock b: blocks) {
+            if (b.label < 0) continue;
+            if (b.label >= labelBlock.length) {
+                int[] bigger = new int[Math.max(b.label + 1, labelBlock.length * 2)];
+                Arrays.fill(bigger, -1);
+                System.arraycopy(labelBlock, 0, bigger, 0, labelBlock.length);
+                labelBlock = bigger;
+            }
+            labelBlock[b.label] = b.index;
+        }
+
+        for (BasicBlock b: blocks) {
+            int last = b.end - 1;
+            int op = last >= b.start ? code.op(last) : CodeBuffer.LABEL;
+            if (StackAnalysis.isJump(op)) {
+                int target = code.operand(last);
+                if (target >= labelBlock.length || labelBlock[target] < 0)
+                    throw new RuntimeException("undefined label L" + target);
+                b.edgeTo(blocks.get(labelBlock[target]));
+            }
+            if (op != CodeBuffer.GOTO && op != CodeBuffer.RETURN && b.index + 1 < blocks.size()) {
+                b.edgeTo(blocks.get(b.index + 1));
+            }
+        }
+    }
+
+    // Cooper, Harvey and Kennedy, "A Simple, Fast Dominance Algorithm"
+    private void computeDominators () {
+        idom = new int[blocks.size()];
+        Arrays.fill(idom, -1);
+        List<BasicBlock> order = reversePostorder();
+        int[] rank = new int[blocks.size()];
+        for (int i = 0; i < order.size(); i++) {
+            order.get(i).reachable = true;
+            rank[order.get(i).index] = i;
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock b: order) {
+                if (b == entry()) continue;
+                int dom = -1;
+                for (BasicBlock p: b.preds) {
+                    if (!p.reachable || (idom[p.index] < 0 && p != entry())) continue;
+                    dom = dom < 0 ? p.index : intersect(p.index, dom, rank);
+                }
+                if (dom != idom[b.index]) {
+                    idom[b.index] = dom;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private int intersect (int a, int b, int[] rank) {
+        while (a != b) {
+            while (rank[a] > rank[b]) a = idom[a];
+            while (rank[b] > rank[a]) b = idom[b];
+        }
+        return a;
+    }
+}
+
+
+
+/**
+ * Instructions start (inclusive) to end (exclusive) of a method, which
+ * always run together.
+ */
+class BasicBlock {
+    final int index;
+    final int start;
+    final int end;
+
+    // label the block starts with, or -1
+    final int label;
+
+    final List<BasicBlock> succs = new ArrayList<>(2);
+    final List<BasicBlock> preds = new ArrayList<>(2);
+
+    boolean reachable = false;
+
+    BasicBlock (int index, int start, int end, int label) {
+        this.index = index;
+        this.start = start;
+        this.end = end;
+        this.label = label;
+    }
+
+    void edgeTo (BasicBlock b) {
+        succs.add(b);
+        b.preds.add(this);
+    }
+}
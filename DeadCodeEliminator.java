@@ -0,0 +1,222 @@
+import CPP.Absyn.*;
+import CPP.ComposVisitor;
+import CPP.FoldVisitor;
+
+import java.util.*;
+
+/**
+ * Removes code that cannot run or whose result is never used.
+ *
+ *  - statements after a statement that cannot complete normally, like a
+ *    return or an if/else that returns in both branches
+ *  - assignments to local variables that are never read; the assigned
+ *    expression stays if it has side effects
+ *  - expression statements without side effects, including calls of
+ *    pure functions whose value is not used
+ *
+ * A function is pure if it calls no Runtime function and no function that
+ * is not pure, is not recursive, and has no loop and no division that
+ * could throw, so removing a call can never hide output, an exception or
+ * a loop that does not end.
+ */
+class DeadCodeEliminator extends ComposVisitor<Void> implements PassManager.ProgramPass {
+
+    // functions whose calls can be removed if the value is not used
+    private Set<String> pureFuns;
+
+    // variables read anywhere in the function being rewritten
+    private Set<String> read;
+
+    public String name () {
+        return "dce";
+    }
+
+    public Program run (Program p) {
+        pureFuns = pureFunctions((PDefs) p);
+        return p.accept(this, null);
+    }
+
+    public Def visit(DFun p, Void arg)
+    {
+        read = new HashSet<>();
+        for (Stm s: p.liststm_) {
+            read.addAll(s.accept(new ReadVars(), null));
+        }
+        return new DFun(p.type_, p.id_, p.listarg_, block(p.liststm_));
+    }
+
+    public Stm visit(SBlock p, Void arg)
+    {
+        return new SBlock(block(p.liststm_));
+    }
+
+    public Stm visit(SExp p, Void arg)
+    {
+        Exp exp_ = p.exp_.accept(this, arg);
+        if (isPure(exp_, false)) return new SBlock(new ListStm());
+        return new SExp(exp_);
+    }
+
+    public Stm visit(SInit p, Void arg)
+    {
+        // no one reads the variable, only the side effects are left
+        if (!read.contains(p.id_)) return visit(new SExp(p.exp_), arg);
+        return super.visit(p, arg);
+    }
+
+    public Exp visit(EAss p, Void arg)
+    {
+        Exp exp_2 = p.exp_2.accept(this, arg);
+        if (p.exp_1 instanceof EId && !read.contains(((EId) p.exp_1).id_)) return exp_2;
+        return new EAss(p.exp_1, exp_2);
+    }
+
+    // the statements of a block up to the first one that does not complete
+    private ListStm block(ListStm stms) {
+        ListStm out = new ListStm();
+        for (Stm s: stms) {
+            Stm stm = s.accept(this, null);
+            // statements that were removed completely
+            if (!(stm instanceof SBlock && ((SBlock) stm).liststm_.isEmpty())) out.add(stm);
+            if (!completes(stm)) break;
+        }
+        return out;
+    }
+
+    /**true if control can reach the end of the statement,
+     * there is no break so only a while(true) loop never ends*/
+    static boolean completes(Stm s) {
+        if (s instanceof SReturn) {
+            return false;
+        } else if (s instanceof SBlock) {
+            return completes(((SBlock) s).liststm_);
+        } else if (s instanceof SIfElse) {
+            SIfElse i = (SIfElse) s;
+            if (i.exp_ instanceof ETrue) return completes(i.stm_1);
+            if (i.exp_ instanceof EFalse) return completes(i.stm_2);
+            return completes(i.stm_1) || completes(i.stm_2);
+        } else if (s instanceof SWhile) {
+            return !(((SWhile) s).exp_ instanceof ETrue);
+        }
+        return true;
+    }
+
+    static boolean completes(List<Stm> stms) {
+        for (Stm s: stms) {
+            if (!completes(s)) return false;
+        }
+        return true;
+    }
+
+    ////////////////////////////// Purity //////////////////////////////
+
+    // no side effects, and assignments to locals only in function bodies
+    private boolean isPure(Exp e, boolean inFunction) {
+        return e.accept(new Pure(pureFuns, inFunction), null);
+    }
+
+    // a function is pure once all functions it calls are known to be pure,
+    // which also leaves out every recursive function
+    private static Set<String> pureFunctions(PDefs p) {
+        Set<String> pure = new HashSet<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Def d: p.listdef_) {
+                DFun f = (DFun) d;
+                if (pure.contains(f.id_)) continue;
+                if (f.accept(new Pure(pure, true), null)) {
+                    pure.add(f.id_);
+                    changed = true;
+                }
+            }
+        }
+        return pure;
+    }
+}
+
+
+
+/**
+ * True if a statement or expression has no effect outside of the locals
+ * of its function, always ends and never throws.
+ */
+class Pure extends FoldVisitor<Boolean,Void> {
+
+    private final Set<String> pureFuns;
+
+    // assignments to locals are allowed
+    private final boolean inFunction;
+
+    Pure (Set<String> pureFuns, boolean inFunction) {
+        this.pureFuns = pureFuns;
+        this.inFunction = inFunction;
+    }
+
+    public Boolean leaf(Void arg) {
+        return true;
+    }
+
+    public Boolean combine(Boolean x, Boolean y, Void arg) {
+        return x && y;
+    }
+
+    public Boolean visit(SWhile p, Void arg) {
+        return false;
+    }
+
+    public Boolean visit(EApp p, Void arg) {
+        return pureFuns.contains(p.id_) && super.visit(p, arg);
+    }
+
+    public Boolean visit(EDiv p, Void arg) {
+        // only a constant divisor is sure not to be 0
+        return p.exp_2 instanceof EInt && ((EInt) p.exp_2).integer_ != 0 && super.visit(p, arg);
+    }
+
+    public Boolean visit(EAss p, Void arg) {
+        return inFunction && super.visit(p, arg);
+    }
+    public Boolean visit(EPostIncr p, Void arg) {
+        return inFunction;
+    }
+    public Boolean visit(EPostDecr p, Void arg) {
+        return inFunction;
+    }
+    public Boolean visit(EPreIncr p, Void arg) {
+        return inFunction;
+    }
+    public Boolean visit(EPreDecr p, Void arg) {
+        return inFunction;
+    }
+}
+
+
+
+/**
+ * Names of the variables whose value a statement or expression reads.
+ * The target of = is not read, the target of ++ and -- is.
+ */
+class ReadVars extends FoldVisitor<Set<String>,Void> {
+
+    public Set<String> leaf(Void arg) {
+        return new HashSet<>();
+    }
+
+    public Set<String> combine(Set<String> x, Set<String> y, Void arg) {
+        x.addAll(y);
+        return x;
+    }
+
+    public Set<String> visit(EId p, Void arg) {
+        Set<String> vars = leaf(arg);
+        vars.add(p.id_);
+        return vars;
+    }
+
+    public Set<String> visit(EAss p, Void arg) {
+        Set<String> vars = p.exp_2.accept(this, arg);
+        if (!(p.exp_1 instanceof EId)) vars.addAll(p.exp_1.accept(this, arg));
+        return vars;
+    }
+}
@@ -0,0 +1,61 @@
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The errors found in one source file, in the order they were found,
+ * each with the line of the node it is about.
+ *
+ * The lines come from the parser, which keeps the line of the first token
+ * of every node; nodes that the passes made up later have none, and their
+ * errors are reported without one.
+ */
+class Diagnostics {
+
+    private final Map<Object,Integer> lines;
+    private final List<String> errors = new ArrayList<>();
+
+    public Diagnostics () {
+        this(new IdentityHashMap<>());
+    }
+
+    public Diagnostics (Map<Object,Integer> lines) {
+        this.lines = lines;
+    }
+
+    /**adds an error about node, which may be null*/
+    public void error (Object node, String message) {
+        Integer line = node == null ? null : lines.get(node);
+        errors.add(line == null || line < 0 ? message : "line " + line + ": " + message);
+    }
+
+    /**an empty list for the same source, for the errors of one function*/
+    public Diagnostics part () {
+        return new Diagnostics(lines);
+    }
+
+    /**adds the errors of a part after the ones found so far*/
+    public void addAll (Diagnostics part) {
+        errors.addAll(part.errors);
+    }
+
+    public int count () {
+        return errors.size();
+    }
+
+    public boolean hasErrors () {
+        return !errors.isEmpty();
+    }
+
+    public List<String> errors () {
+        return Collections.unmodifiableList(errors);
+    }
+
+    public void report (PrintStream out) {
+        for (String e: errors) out.println(e);
+        if (errors.size() > 1) out.println(errors.size() + " errors");
+    }
+}
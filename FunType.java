@@ -54,7 +54,6 @@ class TypeVisitor implements Type.Visitor<String,Void> {
         return FunType.ASM_VOID;
     }
 
-    // exclude double for now
     public String visit(CPP.Absyn.Type_double p, Void arg)
     {
         return "D";
@@ -0,0 +1,41 @@
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Runs a compiled program in the current JVM, without writing
+ * className.class or starting another java process.
+ */
+public class InMemoryRunner {
+
+    /**defines the generated class in a fresh loader and calls its main()I*/
+    public static int run(String className, byte[] bytes) throws Throwable {
+        // make sure the runtime library is loaded before the program needs it
+        Class.forName("Runtime", true, InMemoryRunner.class.getClassLoader());
+
+        ByteClassLoader loader = new ByteClassLoader(InMemoryRunner.class.getClassLoader());
+        Class<?> program = loader.define(className, bytes);
+        Method main = program.getMethod("main");
+        try {
+            return (Integer) main.invoke(null);
+        } catch (InvocationTargetException e) {
+            // report what the program threw, not the reflection wrapper
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * One loader per program, so programs with the same class name
+     * can run one after the other. Everything else, in particular
+     * Runtime, comes from the parent loader.
+     */
+    static class ByteClassLoader extends ClassLoader {
+
+        ByteClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String className, byte[] bytes) {
+            return defineClass(className, bytes, 0, bytes.length);
+        }
+    }
+}
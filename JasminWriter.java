@@ -0,0 +1,81 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes the jasmin code of a class as it is compiled.
+ *
+ * Each method is appended to one char buffer, which is reused for
+ * every method. Whole methods then go through a byte buffer into the
+ * .j file, and to the echo stream if there is one.
+ */
+class JasminWriter {
+
+    private final FileChannel file;
+    private final PrintStream echo;
+
+    private final StringBuilder method = new StringBuilder(4096);
+    private final CodeToJVM toJVM;
+
+    private final ByteBuffer bytes = ByteBuffer.allocateDirect(1 << 16);
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+
+    // file and echo may be null
+    public JasminWriter (String className, FileChannel file, PrintStream echo) {
+        this.toJVM = new CodeToJVM(method, className);
+        this.file = file;
+        this.echo = echo;
+    }
+
+    public void method (String signature, int limitLocals, int limitStack, CodeBuffer code) {
+        method.setLength(0);
+        method.append("\n.method public static ").append(signature).append('\n')
+              .append("  .limit locals ").append(limitLocals).append('\n')
+              .append("  .limit stack ").append(limitStack).append("\n\n");
+        for (int i = 0; i < code.size(); i++) {
+            method.append("  ");
+            toJVM.instruction(code, i);
+        }
+        method.append("\n.end method\n");
+        write(method);
+    }
+
+    // the compiler visitors cannot throw IOException, see Compiler.compile
+    public void write (CharSequence s) {
+        if (echo != null) echo.append(s);
+        if (file == null) return;
+
+        CharBuffer chars = CharBuffer.wrap(s);
+        try {
+            while (encoder.encode(chars, bytes, false) == CoderResult.OVERFLOW) {
+                drain();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public void close () throws IOException {
+        if (echo != null) echo.flush();
+        if (file == null) return;
+
+        encoder.encode(CharBuffer.allocate(0), bytes, true);
+        encoder.flush(bytes);
+        drain();
+        file.close();
+    }
+
+    private void drain () throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            file.write(bytes);
+        }
+        bytes.clear();
+    }
+}
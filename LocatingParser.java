@@ -0,0 +1,40 @@
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Stack;
+
+import java_cup.runtime.Symbol;
+
+/**
+ * The generated parser, keeping the line of every node of the tree.
+ *
+ * The lexer gives every token its line. Each reduction gets the lines of
+ * its first and last symbol, as later CUP versions do by themselves, and
+ * the line of a new Exp, Stm, Def or Arg node is kept for the error
+ * messages of the type checker. This lives here and not in CPP.cup, since
+ * CUP 0.10k has no way to run code after every action.
+ */
+class LocatingParser extends CPP.parser {
+
+    /**line of the first token of every node of the tree, by identity*/
+    public final Map<Object,Integer> lines = new IdentityHashMap<>();
+
+    LocatingParser (java_cup.runtime.Scanner s) {
+        super(s);
+    }
+
+    @SuppressWarnings("rawtypes")
+    public Symbol do_action (int act_num, java_cup.runtime.lr_parser parser, Stack stack, int top)
+            throws Exception {
+        Symbol result = super.do_action(act_num, parser, stack, top);
+        int length = production_tab[act_num][1];
+        Symbol first = length > 0 ? (Symbol) stack.elementAt(top - length + 1) : cur_token;
+        Symbol last = length > 0 ? (Symbol) stack.elementAt(top) : cur_token;
+        result.left = first.left;
+        result.right = last.right;
+        if (result.value instanceof CPP.Absyn.Exp || result.value instanceof CPP.Absyn.Stm
+                || result.value instanceof CPP.Absyn.Def || result.value instanceof CPP.Absyn.Arg) {
+            lines.putIfAbsent(result.value, result.left);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,223 @@
+import CPP.Absyn.*;
+import CPP.ComposVisitor;
+import CPP.FoldVisitor;
+
+import java.util.*;
+
+/**
+ * Moves arithmetic that gives the same value in every iteration out of
+ * while loops.
+ *
+ * An expression is invariant in a loop if it is built from +, -, * and /
+ * on literals and on variables that the loop neither assigns nor declares.
+ * Each one is computed once into a new local before the loop, its
+ * preheader, and the loop reads the local instead:
+ *
+ *   while (i < n * n) s = s + n * n;
+ *
+ * becomes
+ *
+ *   { int $licm0 = n * n; while (i < $licm0) s = s + $licm0; }
+ *
+ * Invariant arithmetic cannot throw, except int division by a variable,
+ * which is left where it is so it only throws if the loop runs it. Loops
+ * are done inner first, so what moves out of an inner loop can move on out
+ * of the outer one.
+ */
+class LoopInvariantMotion extends ComposVisitor<Void> implements PassManager.ProgramPass {
+
+    // Types of the variables in scope, innermost block first.
+    private LinkedList<Map<String,Type>> types;
+
+    // number of the next new local
+    private int temps = 0;
+
+    public String name () {
+        return "licm";
+    }
+
+    public Program run (Program p) {
+        return p.accept(this, null);
+    }
+
+    public Def visit(DFun p, Void arg)
+    {
+        types = new LinkedList<>();
+        types.push(new HashMap<>());
+        for (Arg a: p.listarg_) {
+            ADecl d = (ADecl) a;
+            types.peek().put(d.id_, d.type_);
+        }
+        return super.visit(p, arg);
+    }
+
+    public Stm visit(SDecls p, Void arg)
+    {
+        for (String x: p.listid_) {
+            types.peek().put(x, p.type_);
+        }
+        return p;
+    }
+
+    public Stm visit(SInit p, Void arg)
+    {
+        types.peek().put(p.id_, p.type_);
+        return p;
+    }
+
+    public Stm visit(SBlock p, Void arg)
+    {
+        types.push(new HashMap<>());
+        Stm block = super.visit(p, arg);
+        types.pop();
+        return block;
+    }
+
+    public Stm visit(SIfElse p, Void arg)
+    {
+        types.push(new HashMap<>());
+        Stm stm_1 = p.stm_1.accept(this, arg);
+        types.pop();
+        types.push(new HashMap<>());
+        Stm stm_2 = p.stm_2.accept(this, arg);
+        types.pop();
+        return new SIfElse(p.exp_, stm_1, stm_2);
+    }
+
+    public Stm visit(SWhile p, Void arg)
+    {
+        types.push(new HashMap<>());
+        Stm stm_ = p.stm_.accept(this, arg);
+        types.pop();
+
+        // everything the loop writes or declares can change between iterations
+        Set<String> variant = p.accept(new AssignedVars(), null);
+        variant.addAll(stm_.accept(new DeclaredVars(), null));
+
+        Hoister hoister = new Hoister(variant);
+        Exp exp_ = p.exp_.accept(hoister, arg);
+        stm_ = stm_.accept(hoister, arg);
+        if (hoister.preheader.isEmpty()) {
+            return new SWhile(exp_, stm_);
+        }
+
+        ListStm block = hoister.preheader;
+        block.add(new SWhile(exp_, stm_));
+        return new SBlock(block);
+    }
+
+    private Type lookup(String x) {
+        for (Map<String,Type> scope: types) {
+            if (scope.containsKey(x)) return scope.get(x);
+        }
+        return null;
+    }
+
+    /**
+     * Replaces the largest invariant subexpressions of one loop by new
+     * locals, and collects their initialization in the preheader.
+     */
+    class Hoister extends ComposVisitor<Void> {
+
+        private final Set<String> variant;
+
+        // the locals made so far, by the expression they hold
+        private final Map<Exp,String> locals = new HashMap<>();
+        final ListStm preheader = new ListStm();
+
+        Hoister (Set<String> variant) {
+            this.variant = variant;
+        }
+
+        public Exp visit(EPlus p, Void arg) {
+            return invariant(p) ? local(p) : super.visit(p, arg);
+        }
+        public Exp visit(EMinus p, Void arg) {
+            return invariant(p) ? local(p) : super.visit(p, arg);
+        }
+        public Exp visit(ETimes p, Void arg) {
+            return invariant(p) ? local(p) : super.visit(p, arg);
+        }
+        public Exp visit(EDiv p, Void arg) {
+            return invariant(p) ? local(p) : super.visit(p, arg);
+        }
+
+        private Exp local(Exp e) {
+            String x = locals.get(e);
+            if (x == null) {
+                x = "$licm" + temps++;
+                locals.put(e, x);
+                preheader.add(new SInit(typeOf(e), x, e));
+            }
+            return new EId(x);
+        }
+
+        private boolean invariant(Exp e) {
+            if (e instanceof EInt || e instanceof EDouble) {
+                return true;
+            } else if (e instanceof EId) {
+                String x = ((EId) e).id_;
+                return !variant.contains(x) && lookup(x) != null;
+            } else if (e instanceof EPlus) {
+                return invariant(((EPlus) e).exp_1) && invariant(((EPlus) e).exp_2);
+            } else if (e instanceof EMinus) {
+                return invariant(((EMinus) e).exp_1) && invariant(((EMinus) e).exp_2);
+            } else if (e instanceof ETimes) {
+                return invariant(((ETimes) e).exp_1) && invariant(((ETimes) e).exp_2);
+            } else if (e instanceof EDiv) {
+                EDiv d = (EDiv) e;
+                // an int division by a variable may throw
+                boolean safe = d.exp_2 instanceof EInt ? ((EInt) d.exp_2).integer_ != 0
+                        : typeOf(d) instanceof Type_double;
+                return safe && invariant(d.exp_1) && invariant(d.exp_2);
+            }
+            return false;
+        }
+
+        // arithmetic is double if one of the operands is
+        private Type typeOf(Exp e) {
+            if (e instanceof EInt) return new Type_int();
+            if (e instanceof EDouble) return new Type_double();
+            if (e instanceof EId) return lookup(((EId) e).id_);
+            if (e instanceof EPlus) return promote(((EPlus) e).exp_1, ((EPlus) e).exp_2);
+            if (e instanceof EMinus) return promote(((EMinus) e).exp_1, ((EMinus) e).exp_2);
+            if (e instanceof ETimes) return promote(((ETimes) e).exp_1, ((ETimes) e).exp_2);
+            if (e instanceof EDiv) return promote(((EDiv) e).exp_1, ((EDiv) e).exp_2);
+            return null;
+        }
+
+        private Type promote(Exp e1, Exp e2) {
+            Type t = typeOf(e1);
+            return t instanceof Type_double ? t : typeOf(e2);
+        }
+    }
+}
+
+
+
+/**
+ * Names of the variables declared in a statement.
+ */
+class DeclaredVars extends FoldVisitor<Set<String>,Void> {
+
+    public Set<String> leaf(Void arg) {
+        return new HashSet<>();
+    }
+
+    public Set<String> combine(Set<String> x, Set<String> y, Void arg) {
+        x.addAll(y);
+        return x;
+    }
+
+    public Set<String> visit(SDecls p, Void arg) {
+        Set<String> vars = leaf(arg);
+        vars.addAll(p.listid_);
+        return vars;
+    }
+
+    public Set<String> visit(SInit p, Void arg) {
+        Set<String> vars = super.visit(p, arg);
+        vars.add(p.id_);
+        return vars;
+    }
+}
@@ -0,0 +1,103 @@
+import CPP.Absyn.Program;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The optimizations of a compilation, in the order they run.
+ *
+ * Program passes rewrite the whole tree before any code is generated.
+ * Method passes rewrite the code of one method at a time, after it is
+ * generated and before the stack analysis and the backends see it. A pass
+ * returns its result instead of changing its input.
+ */
+class PassManager {
+
+    interface ProgramPass {
+        String name ();
+        Program run (Program p);
+    }
+
+    interface MethodPass {
+        String name ();
+        CodeBuffer run (CodeBuffer code);
+    }
+
+    private final List<ProgramPass> programPasses = new ArrayList<>();
+    private final List<MethodPass> methodPasses = new ArrayList<>();
+
+    // where the time of every pass is counted
+    private PhaseTimes times = PhaseTimes.OFF;
+
+    /**the passes lab3 runs by default*/
+    public static PassManager standard (Peephole peephole) {
+        return forLevel(2, peephole);
+    }
+
+    /**
+     * The passes of an optimization level: 0 runs none, 1 only constant
+     * folding and the peephole rules, 2 all of them.
+     */
+    public static PassManager forLevel (int level, Peephole peephole) {
+        PassManager passes = new PassManager();
+        if (level >= 1) passes.add(new ConstantFolder());
+        if (level >= 2) {
+            passes.add(new DeadCodeEliminator())
+                  .add(new LoopInvariantMotion())
+                  .add(new UnreachableBlocks())
+                  .add(new CommonSubexpressions());
+        }
+        if (level >= 1) passes.add(peephole);
+        return passes;
+    }
+
+    public PassManager timed (PhaseTimes times) {
+        this.times = times;
+        return this;
+    }
+
+    public PassManager add (ProgramPass pass) {
+        programPasses.add(pass);
+        return this;
+    }
+
+    public PassManager add (MethodPass pass) {
+        methodPasses.add(pass);
+        return this;
+    }
+
+    public Program runProgramPasses (Program p) {
+        for (ProgramPass pass: programPasses) {
+            times.start(pass.name());
+            p = pass.run(p);
+            times.stop();
+        }
+        return p;
+    }
+
+    public CodeBuffer runMethodPasses (CodeBuffer code) {
+        for (MethodPass pass: methodPasses) {
+            times.start(pass.name());
+            code = pass.run(code);
+            times.stop();
+        }
+        return code;
+    }
+}
+
+
+
+/**
+ * Removes the basic blocks that no path from the start of the method
+ * reaches, like code after a goto or a return that no jump leads to.
+ */
+class UnreachableBlocks implements PassManager.MethodPass {
+
+    public String name () {
+        return "unreachable-blocks";
+    }
+
+    public CodeBuffer run (CodeBuffer code) {
+        return new ControlFlowGraph(code).toCode();
+    }
+}
@@ -0,0 +1,325 @@
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Removes redundant instruction sequences from the code of a method.
+ *
+ * Every rule looks at the instructions from some index on. If they match,
+ * it writes their replacement and says how many instructions it consumed.
+ * The rules are tried at every index, and the whole method is rewritten
+ * again until no rule matches any more, since one rewrite often makes room
+ * for another (store/load then push/pop).
+ *
+ * Rules never remove a label, so jump targets stay where they are, and
+ * they only match instructions that are next to each other, so no jump
+ * can land in the middle of a match.
+ */
+class Peephole implements PassManager.MethodPass {
+
+    // name of every rule in the order they are tried
+    static final Map<String,Rule> RULES = new LinkedHashMap<>();
+    static {
+        RULES.put("store-load", Peephole::storeLoad);
+        RULES.put("push-pop", Peephole::pushPop);
+        RULES.put("const-i2d", Peephole::constI2d);
+        RULES.put("iinc", Peephole::iinc);
+        RULES.put("commute", Peephole::commute);
+        RULES.put("identity", Peephole::identity);
+        RULES.put("strength", Peephole::strength);
+        RULES.put("add-iinc", Peephole::addToIinc);
+        RULES.put("jump-to-next", Peephole::jumpToNext);
+        RULES.put("unreachable", Peephole::unreachable);
+    }
+
+    interface Rule {
+        /**rewrites the instructions of in from i on into out and returns
+         * how many it consumed, or 0 if they do not match*/
+        int rewrite (CodeBuffer in, int i, CodeBuffer out);
+    }
+
+    private final String[] names;
+    private final Rule[] rules;
+
+    // times each rule matched and instructions it removed so far, over
+    // all methods; strength reduction of a division adds instructions.
+    // Methods are counted on their own and added when they are done,
+    // since several can be optimized at the same time
+    private final int[] applied;
+    private final int[] removed;
+
+    /**all the rules*/
+    public Peephole () {
+        this(RULES.keySet());
+    }
+
+    public Peephole (Collection<String> enabled) {
+        names = new String[enabled.size()];
+        rules = new Rule[enabled.size()];
+        applied = new int[enabled.size()];
+        removed = new int[enabled.size()];
+        int n = 0;
+        for (String name: RULES.keySet()) {
+            if (!enabled.contains(name)) continue;
+            names[n] = name;
+            rules[n] = RULES.get(name);
+            n++;
+        }
+        if (n != enabled.size()) {
+            throw new IllegalArgumentException("unknown peephole rule in " + enabled
+                    + ", the rules are " + RULES.keySet());
+        }
+    }
+
+    public String name () {
+        return "peephole";
+    }
+
+    /**returns the optimized code of a method*/
+    public CodeBuffer run (CodeBuffer code) {
+        if (rules.length == 0) return code;
+
+        int[] applied = new int[rules.length];
+        int[] removed = new int[rules.length];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            CodeBuffer out = new CodeBuffer();
+            int i = 0;
+            while (i < code.size()) {
+                int consumed = 0;
+                for (int r = 0; r < rules.length && consumed == 0; r++) {
+                    int before = out.size();
+                    consumed = rules[r].rewrite(code, i, out);
+                    if (consumed > 0) applied[r]++;
+                    removed[r] += consumed - (out.size() - before);
+                }
+                if (consumed == 0) {
+                    out.append(code, i);
+                    i++;
+                } else {
+                    i += consumed;
+                    changed = true;
+                }
+            }
+            code = out;
+        }
+        count(applied, removed);
+        return code;
+    }
+
+    private synchronized void count (int[] applied, int[] removed) {
+        for (int r = 0; r < rules.length; r++) {
+            this.applied[r] += applied[r];
+            this.removed[r] += removed[r];
+        }
+    }
+
+    public synchronized void report (PrintStream out) {
+        for (int r = 0; r < rules.length; r++) {
+            out.println("peephole " + names[r] + ": " + applied[r] + " rewrites, "
+                    + removed[r] + " instructions removed");
+        }
+    }
+
+    ////////////////////////////// Rules //////////////////////////////
+
+    // store n; load n    ->  dup; store n
+    // store n; load n; pop  ->  store n
+    static int storeLoad (CodeBuffer in, int i, CodeBuffer out) {
+        if (!matches(in, i, CodeBuffer.STORE) || !matches(in, i + 1, CodeBuffer.LOAD)
+                || in.type(i) != in.type(i + 1) || in.operand(i) != in.operand(i + 1)) {
+            return 0;
+        }
+        if (isPopOf(in, i + 2, i + 1)) {
+            out.append(in, i);
+            return 3;
+        }
+        out.add(CodeBuffer.DUP, in.type(i), 0, 0);
+        out.append(in, i);
+        return 2;
+    }
+
+    // a value pushed without side effects and popped right away
+    // dup; pop, iconst; pop, load; pop  ->  nothing
+    // dup; store n; pop  ->  store n
+    static int pushPop (CodeBuffer in, int i, CodeBuffer out) {
+        int op = in.op(i);
+        if (op != CodeBuffer.DUP && op != CodeBuffer.ICONST && op != CodeBuffer.DCONST
+                && op != CodeBuffer.LOAD) {
+            return 0;
+        }
+        if (isPopOf(in, i + 1, i)) {
+            return 2;
+        }
+        if (op == CodeBuffer.DUP && matches(in, i + 1, CodeBuffer.STORE) && isPopOf(in, i + 2, i)) {
+            out.append(in, i + 1);
+            return 3;
+        }
+        return 0;
+    }
+
+    // an int constant used as a double: iconst k; i2d  ->  ldc2_w k.0
+    static int constI2d (CodeBuffer in, int i, CodeBuffer out) {
+        if (matches(in, i, CodeBuffer.ICONST) && matches(in, i + 1, CodeBuffer.I2D)) {
+            out.dconst(in.operand(i));
+            return 2;
+        }
+        return 0;
+    }
+
+    // the old value of x++ is not used: load n; iinc n d; pop  ->  iinc n d
+    // two increments of the same local: iinc n a; iinc n b  ->  iinc n a+b
+    static int iinc (CodeBuffer in, int i, CodeBuffer out) {
+        if (matches(in, i, CodeBuffer.LOAD) && in.type(i) == CodeBuffer.INT
+                && matches(in, i + 1, CodeBuffer.INC) && isPopOf(in, i + 2, i)) {
+            out.append(in, i + 1);
+            return 3;
+        }
+        if (matches(in, i, CodeBuffer.INC) && matches(in, i + 1, CodeBuffer.INC)
+                && in.operand(i) == in.operand(i + 1)) {
+            int delta = in.operand2(i) + in.operand2(i + 1);
+            // iinc takes a signed 16 bit increment
+            if (delta < Short.MIN_VALUE || delta > Short.MAX_VALUE) return 0;
+            if (delta != 0) out.add(CodeBuffer.INC, CodeBuffer.INT, in.operand(i), delta);
+            return 2;
+        }
+        return 0;
+    }
+
+    // constant first, so the rules below only look for it second
+    // iconst k; load n; add  ->  load n; iconst k; add   (and mul)
+    static int commute (CodeBuffer in, int i, CodeBuffer out) {
+        if (matches(in, i, CodeBuffer.ICONST) && matches(in, i + 1, CodeBuffer.LOAD)
+                && isIntOp(in, i + 2, CodeBuffer.ADD, CodeBuffer.MUL)) {
+            out.append(in, i + 1);
+            out.append(in, i);
+            out.append(in, i + 2);
+            return 3;
+        }
+        return 0;
+    }
+
+    // x + 0, x - 0, x * 1, x / 1  ->  x
+    // x * 0  ->  pop; iconst 0     (x may have side effects)
+    // x * -1, x / -1  ->  ineg     (both give MIN_VALUE for MIN_VALUE)
+    static int identity (CodeBuffer in, int i, CodeBuffer out) {
+        if (!matches(in, i, CodeBuffer.ICONST)) return 0;
+        int k = in.operand(i);
+        if (k == 0 && isIntOp(in, i + 1, CodeBuffer.ADD, CodeBuffer.SUB)) {
+            return 2;
+        }
+        if (k == 1 && isIntOp(in, i + 1, CodeBuffer.MUL, CodeBuffer.DIV)) {
+            return 2;
+        }
+        if (k == 0 && isIntOp(in, i + 1, CodeBuffer.MUL, CodeBuffer.MUL)) {
+            out.add(CodeBuffer.POP, CodeBuffer.INT, 0, 0);
+            out.add(CodeBuffer.ICONST, CodeBuffer.INT, 0, 0);
+            return 2;
+        }
+        if (k == -1 && isIntOp(in, i + 1, CodeBuffer.MUL, CodeBuffer.DIV)) {
+            out.add(CodeBuffer.NEG, CodeBuffer.INT, 0, 0);
+            return 2;
+        }
+        return 0;
+    }
+
+    // x * 2^s  ->  x << s
+    // x / 2^s  ->  (x + (x >> 31 >>> 32-s)) >> s
+    // idiv rounds toward zero, so a negative x gets 2^s - 1 added before
+    // the shift, which on its own would round down
+    static int strength (CodeBuffer in, int i, CodeBuffer out) {
+        if (!matches(in, i, CodeBuffer.ICONST)) return 0;
+        int k = in.operand(i);
+        if (Integer.bitCount(k) != 1 || k == 1) return 0;
+        int s = Integer.numberOfTrailingZeros(k);
+        if (isIntOp(in, i + 1, CodeBuffer.MUL, CodeBuffer.MUL)) {
+            out.add(CodeBuffer.ICONST, CodeBuffer.INT, s, 0);
+            out.add(CodeBuffer.SHL, CodeBuffer.INT, 0, 0);
+            return 2;
+        }
+        if (k > 0 && isIntOp(in, i + 1, CodeBuffer.DIV, CodeBuffer.DIV)) {
+            out.add(CodeBuffer.DUP, CodeBuffer.INT, 0, 0);
+            if (s == 1) {
+                out.add(CodeBuffer.ICONST, CodeBuffer.INT, 31, 0);
+                out.add(CodeBuffer.USHR, CodeBuffer.INT, 0, 0);
+            } else {
+                out.add(CodeBuffer.ICONST, CodeBuffer.INT, 31, 0);
+                out.add(CodeBuffer.SHR, CodeBuffer.INT, 0, 0);
+                out.add(CodeBuffer.ICONST, CodeBuffer.INT, 32 - s, 0);
+                out.add(CodeBuffer.USHR, CodeBuffer.INT, 0, 0);
+            }
+            out.add(CodeBuffer.ADD, CodeBuffer.INT, 0, 0);
+            out.add(CodeBuffer.ICONST, CodeBuffer.INT, s, 0);
+            out.add(CodeBuffer.SHR, CodeBuffer.INT, 0, 0);
+            return 2;
+        }
+        return 0;
+    }
+
+    // x = x + k:  load n; iconst k; add; store n  ->  iinc n k
+    // with the value used:  ...; add; dup; store n  ->  iinc n k; load n
+    static int addToIinc (CodeBuffer in, int i, CodeBuffer out) {
+        if (!matches(in, i, CodeBuffer.LOAD) || in.type(i) != CodeBuffer.INT
+                || !matches(in, i + 1, CodeBuffer.ICONST)
+                || !isIntOp(in, i + 2, CodeBuffer.ADD, CodeBuffer.SUB)) {
+            return 0;
+        }
+        int n = in.operand(i);
+        long delta = in.op(i + 2) == CodeBuffer.ADD ? in.operand(i + 1) : -(long) in.operand(i + 1);
+        // iinc takes a signed 16 bit increment
+        if (delta < Short.MIN_VALUE || delta > Short.MAX_VALUE) return 0;
+
+        if (isStoreTo(in, i + 3, n)) {
+            out.add(CodeBuffer.INC, CodeBuffer.INT, n, (int) delta);
+            return 4;
+        }
+        if (matches(in, i + 3, CodeBuffer.DUP) && isStoreTo(in, i + 4, n)) {
+            out.add(CodeBuffer.INC, CodeBuffer.INT, n, (int) delta);
+            out.append(in, i);
+            return 5;
+        }
+        return 0;
+    }
+
+    // goto L; L:  ->  L:
+    static int jumpToNext (CodeBuffer in, int i, CodeBuffer out) {
+        if (matches(in, i, CodeBuffer.GOTO) && matches(in, i + 1, CodeBuffer.LABEL)
+                && in.operand(i) == in.operand(i + 1)) {
+            return 1;
+        }
+        return 0;
+    }
+
+    // nothing after a goto or a return runs until the next label
+    static int unreachable (CodeBuffer in, int i, CodeBuffer out) {
+        int op = in.op(i);
+        if ((op == CodeBuffer.GOTO || op == CodeBuffer.RETURN)
+                && i + 1 < in.size() && in.op(i + 1) != CodeBuffer.LABEL) {
+            out.append(in, i);
+            return 2;
+        }
+        return 0;
+    }
+
+    private static boolean matches (CodeBuffer in, int i, int op) {
+        return i < in.size() && in.op(i) == op;
+    }
+
+    // instruction i is int arithmetic op1 or op2
+    private static boolean isIntOp (CodeBuffer in, int i, int op1, int op2) {
+        return i < in.size() && (in.op(i) == op1 || in.op(i) == op2) && in.type(i) == CodeBuffer.INT;
+    }
+
+    private static boolean isStoreTo (CodeBuffer in, int i, int addr) {
+        return matches(in, i, CodeBuffer.STORE) && in.type(i) == CodeBuffer.INT
+                && in.operand(i) == addr;
+    }
+
+    // instruction i pops the value pushed by instruction push
+    private static boolean isPopOf (CodeBuffer in, int i, int push) {
+        return matches(in, i, CodeBuffer.POP)
+                && CodeBuffer.size(in.type(i)) == CodeBuffer.size(in.type(push));
+    }
+}
@@ -0,0 +1,70 @@
+import CPP.Absyn.DFun;
+import CPP.Absyn.Def;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Function;
+
+/**
+ * Does the same work for every function of a program, on the fork/join
+ * pool, and gives back the results in source order.
+ *
+ * The work for one function must only read what the functions share,
+ * like the signature, and keep everything else to itself; the caller
+ * stitches the results together afterwards. A program with only a few
+ * functions is done on the calling thread, where starting tasks would
+ * cost more than they save.
+ */
+final class PerFunction {
+
+    // fewest functions that are worth splitting over threads
+    static final int MIN_PARALLEL = 8;
+
+    private PerFunction () {}
+
+    static <R> List<R> map (List<Def> defs, boolean parallel, Function<DFun,R> work) {
+        // the list of a program is linked, an array has no cost per get
+        Def[] funs = defs.toArray(new Def[0]);
+        Object[] results = new Object[funs.length];
+        if (parallel && funs.length >= MIN_PARALLEL && ForkJoinPool.getCommonPoolParallelism() > 1) {
+            ForkJoinPool.commonPool().invoke(new Range(funs, work, results, 0, funs.length));
+        } else {
+            for (int i = 0; i < funs.length; i++) results[i] = work.apply((DFun) funs[i]);
+        }
+        @SuppressWarnings("unchecked")
+        List<R> list = (List<R>) (List<?>) Arrays.asList(results);
+        return list;
+    }
+
+    // the functions from start to end, split in halves down to single ones;
+    // tasks are never serialized
+    @SuppressWarnings("serial")
+    private static final class Range extends RecursiveAction {
+
+        private final Def[] funs;
+        private final Function<DFun,?> work;
+        private final Object[] results;
+        private final int start;
+        private final int end;
+
+        Range (Def[] funs, Function<DFun,?> work, Object[] results, int start, int end) {
+            this.funs = funs;
+            this.work = work;
+            this.results = results;
+            this.start = start;
+            this.end = end;
+        }
+
+        protected void compute () {
+            if (end - start == 1) {
+                results[start] = work.apply((DFun) funs[start]);
+                return;
+            }
+            int middle = (start + end) >>> 1;
+            invokeAll(new Range(funs, work, results, start, middle),
+                      new Range(funs, work, results, middle, end));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Wall time and allocated bytes of the phases of one compilation, for
+ * lab3 --time-passes.
+ *
+ * Phases can be nested, like lexing inside parsing or the method passes
+ * inside code generation; time spent in the inner phase is not counted
+ * for the outer one. Allocation is read from the JVM per thread, so
+ * files compiled on other threads do not show up, and is left out on
+ * JVMs that cannot measure it.
+ */
+class PhaseTimes {
+
+    /**does not measure anything*/
+    static final PhaseTimes OFF = new PhaseTimes(false);
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean
+            ? (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean() : null;
+
+    private final boolean enabled;
+
+    // nanoseconds, bytes and number of runs of every phase, in the order
+    // they first ran
+    private final Map<String,long[]> phases = new LinkedHashMap<>();
+
+    // the phases running now, innermost first, and when the innermost
+    // one was last started or resumed
+    private final LinkedList<String> running = new LinkedList<>();
+    private long startNanos;
+    private long startBytes;
+
+    public PhaseTimes () {
+        this(true);
+    }
+
+    private PhaseTimes (boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled () {
+        return enabled;
+    }
+
+    public void start (String phase) {
+        if (!enabled) return;
+        charge();
+        running.push(phase);
+        phases.computeIfAbsent(phase, k -> new long[3])[2]++;
+    }
+
+    public void stop () {
+        if (!enabled) return;
+        charge();
+        running.pop();
+    }
+
+    // adds the time since the last start or stop to the innermost phase
+    private void charge () {
+        long nanos = System.nanoTime();
+        long bytes = allocated();
+        if (!running.isEmpty()) {
+            long[] p = phases.get(running.peek());
+            p[0] += nanos - startNanos;
+            p[1] += bytes - startBytes;
+        }
+        startNanos = nanos;
+        startBytes = bytes;
+    }
+
+    private static long allocated () {
+        try {
+            return THREADS != null ? THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+        } catch (UnsupportedOperationException e) {
+            return 0;
+        }
+    }
+
+    public void report (PrintStream out) {
+        if (!enabled) return;
+        long nanos = 0;
+        long bytes = 0;
+        out.printf("%-20s %6s %10s %10s%n", "phase", "runs", "ms", "KB");
+        for (Map.Entry<String,long[]> e: phases.entrySet()) {
+            long[] p = e.getValue();
+            out.printf("%-20s %6d %10.3f %10d%n", e.getKey(), p[2], p[0] / 1e6, p[1] / 1024);
+            nanos += p[0];
+            bytes += p[1];
+        }
+        out.printf("%-20s %6s %10.3f %10d%n", "total", "", nanos / 1e6, bytes / 1024);
+    }
+}
+
+
+
+/**
+ * Times the lexer as its own phase while the parser pulls tokens from it.
+ */
+class TimedScanner implements java_cup.runtime.Scanner {
+
+    private final java_cup.runtime.Scanner scanner;
+    private final PhaseTimes times;
+
+    TimedScanner (java_cup.runtime.Scanner scanner, PhaseTimes times) {
+        this.scanner = scanner;
+        this.times = times;
+    }
+
+    public java_cup.runtime.Symbol next_token () throws Exception {
+        times.start("lex");
+        try {
+            return scanner.next_token();
+        } finally {
+            times.stop();
+        }
+    }
+}
@@ -20,8 +20,8 @@ public class Runtime {
         return scan.nextInt();
     }
 
-    /*public static double readDouble () {
+    public static double readDouble () {
         return scan.nextDouble();
-    }*/
+    }
 
 }
@@ -0,0 +1,94 @@
+import java.util.Arrays;
+
+import CPP.Symbols;
+
+/**
+ * A symbol table for nested blocks: one array from symbol id to value,
+ * and an undo log of what every put replaced.
+ *
+ * Entering a block only remembers the length of the log, and leaving it
+ * puts back what the block's puts replaced, so both cost nothing for the
+ * names of the enclosing blocks, however many there are. A lookup finds
+ * the id of the name, which the lexer interned, and indexes the array,
+ * instead of a walk over the blocks or a comparison of strings.
+ */
+class ScopedMap<V> {
+
+    // a value and the depth of the block it was put in
+    private static final class Binding<V> {
+        final V value;
+        final int depth;
+
+        Binding (V value, int depth) {
+            this.value = value;
+            this.depth = depth;
+        }
+    }
+
+    private final Symbols symbols;
+
+    // the innermost binding of every symbol id, or null
+    private Object[] bindings;
+
+    // the ids put, and the binding each one replaced or null
+    private int[] logIds = new int[16];
+    private Object[] logBindings = new Object[16];
+    private int logSize = 0;
+
+    // length of the log when each enclosing block was entered
+    private int[] marks = new int[8];
+    private int depth = 0;
+
+    ScopedMap (Symbols symbols) {
+        this.symbols = symbols;
+        this.bindings = new Object[Math.max(16, symbols.size())];
+    }
+
+    public void enterScope () {
+        if (depth == marks.length) marks = Arrays.copyOf(marks, depth * 2);
+        marks[depth++] = logSize;
+    }
+
+    public void exitScope () {
+        if (depth == 0)
+            throw new RuntimeException("no scope to exit");
+        int mark = marks[--depth];
+        while (logSize > mark) {
+            logSize--;
+            bindings[logIds[logSize]] = logBindings[logSize];
+            logBindings[logSize] = null;
+        }
+    }
+
+    /**binds name in the innermost scope, hiding any outer binding until the scope is exited*/
+    public void put (String name, V value) {
+        int id = symbols.id(name);
+        if (id >= bindings.length) bindings = Arrays.copyOf(bindings, Math.max(id + 1, bindings.length * 2));
+        if (logSize == logIds.length) {
+            logIds = Arrays.copyOf(logIds, logSize * 2);
+            logBindings = Arrays.copyOf(logBindings, logSize * 2);
+        }
+        logIds[logSize] = id;
+        logBindings[logSize] = bindings[id];
+        logSize++;
+        bindings[id] = new Binding<>(value, depth);
+    }
+
+    /**the value of the innermost binding of name, or null*/
+    public V get (String name) {
+        Binding<V> b = binding(name);
+        return b == null ? null : b.value;
+    }
+
+    /**true if name was put in the innermost scope itself*/
+    public boolean isLocal (String name) {
+        Binding<V> b = binding(name);
+        return b != null && b.depth == depth;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Binding<V> binding (String name) {
+        int id = symbols.find(name);
+        return id >= 0 && id < bindings.length ? (Binding<V>) bindings[id] : null;
+    }
+}
@@ -0,0 +1,159 @@
+import CPP.Absyn.ADecl;
+import CPP.Absyn.Arg;
+
+/**
+ * Computes the operand stack height before every instruction of a method
+ * by following the control flow, including both ways out of every branch.
+ *
+ * The result is the exact maximum height, for .limit stack. An instruction
+ * that can be reached with two different heights, or that pops more than
+ * there is on the stack, means the code generator produced broken code.
+ */
+class StackAnalysis {
+
+    private final CodeBuffer code;
+
+    // height before every instruction, -1 while it has not been reached
+    private final int[] height;
+
+    // instruction index of every label of this method, -1 if none
+    private int[] labelIndex = new int[0];
+
+    private int maxHeight = 0;
+
+    public StackAnalysis (CodeBuffer code) {
+        this.code = code;
+        this.height = new int[code.size()];
+    }
+
+    /**runs the analysis and returns the maximum stack height of the method*/
+    public int run () {
+        java.util.Arrays.fill(height, -1);
+        indexLabels();
+
+        int[] work = new int[code.size() + 1];
+        int pending = 0;
+        if (code.size() > 0) {
+            height[0] = 0;
+            work[pending++] = 0;
+        }
+
+        while (pending > 0) {
+            int i = work[--pending];
+            int after = height[i] + effect(i);
+            if (after < 0)
+                throw new RuntimeException("stack underflow at instruction " + i);
+            if (after > maxHeight) maxHeight = after;
+
+            int op = code.op(i);
+            if (isJump(op)) {
+                int target = labelIndex(code.operand(i));
+                if (merge(target, after)) work[pending++] = target;
+            }
+            if (op != CodeBuffer.GOTO && op != CodeBuffer.RETURN && i + 1 < code.size()) {
+                if (merge(i + 1, after)) work[pending++] = i + 1;
+            }
+        }
+        return maxHeight;
+    }
+
+    /**stack height before instruction i, or -1 if it is unreachable*/
+    public int heightAt (int i) {
+        return height[i];
+    }
+
+    // returns true if instruction i was reached for the first time
+    private boolean merge (int i, int h) {
+        if (height[i] == -1) {
+            height[i] = h;
+            return true;
+        }
+        if (height[i] != h) {
+            String where = code.op(i) == CodeBuffer.LABEL
+                    ? "L" + code.operand(i) : "instruction " + i;
+            throw new RuntimeException("inconsistent stack height at " + where
+                    + ": " + height[i] + " and " + h);
+        }
+        return false;
+    }
+
+    // change of the stack height caused by instruction i
+    private int effect (int i) {
+        int size = CodeBuffer.size(code.type(i));
+        switch (code.op(i)) {
+            case CodeBuffer.LOAD:
+            case CodeBuffer.DUP:
+                return size;
+            case CodeBuffer.ICONST:
+                return 1;
+            case CodeBuffer.DCONST:
+                return 2;
+            case CodeBuffer.STORE:
+            case CodeBuffer.POP:
+            case CodeBuffer.RETURN:
+            case CodeBuffer.ADD:
+            case CodeBuffer.SUB:
+            case CodeBuffer.MUL:
+            case CodeBuffer.DIV:
+                return -size;
+            case CodeBuffer.SHL:
+            case CodeBuffer.SHR:
+            case CodeBuffer.USHR:
+                // an int shifted by an int
+                return -1;
+            case CodeBuffer.CALL:
+                FunType funType = code.fun(i).funType;
+                int effect = CodeBuffer.size(CodeBuffer.tag(funType.returnType));
+                for (Arg a: funType.args) {
+                    effect -= CodeBuffer.size(CodeBuffer.tag(((ADecl) a).type_));
+                }
+                return effect;
+            case CodeBuffer.IFZ:
+            case CodeBuffer.IFNZ:
+                return -1;
+            case CodeBuffer.IFEQ:
+            case CodeBuffer.IFNE:
+            case CodeBuffer.IFLT:
+            case CodeBuffer.IFGT:
+            case CodeBuffer.IFLE:
+            case CodeBuffer.IFGE:
+                // booleans and the result of a double comparison are
+                // tested against 0, ints compared to each other
+                return code.type(i) == CodeBuffer.INT ? -2 : -1;
+            case CodeBuffer.I2D:
+                return 1;
+            case CodeBuffer.DGT:
+            case CodeBuffer.DLT:
+                // two doubles compared to an int
+                return -3;
+            default:
+                // LABEL, GOTO, INC, NEG
+                return 0;
+        }
+    }
+
+    static boolean isJump (int op) {
+        return op == CodeBuffer.GOTO || (op >= CodeBuffer.IFZ && op <= CodeBuffer.IFGE);
+    }
+
+    private int labelIndex (int label) {
+        int i = label < labelIndex.length ? labelIndex[label] : -1;
+        if (i < 0)
+            throw new RuntimeException("undefined label L" + label);
+        return i;
+    }
+
+    private void indexLabels () {
+        for (int i = 0; i < code.size(); i++) {
+            if (code.op(i) != CodeBuffer.LABEL) continue;
+            int label = code.operand(i);
+            if (label >= labelIndex.length) {
+                int[] bigger = new int[Math.max(label + 1, labelIndex.length * 2)];
+                java.util.Arrays.fill(bigger, -1);
+                System.arraycopy(labelIndex, 0, bigger, 0, labelIndex.length);
+                labelIndex = bigger;
+            }
+            labelIndex[label] = i;
+        }
+    }
+}
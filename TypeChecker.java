@@ -1,9 +1,10 @@
 import CPP.Absyn.*;
+import CPP.Symbols;
 
-import java.util.LinkedList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
 
 public class TypeChecker {
 
@@ -11,21 +12,74 @@ public class TypeChecker {
     private Map<String,FunType> sig;
 
     // Stack of contexts
-    private List<Map<String,Type>> cxt;
+    private ScopedMap<Type> cxt;
+
+    // Identifiers of the program, interned by the lexer
+    private final Symbols symbols;
+
+    // Errors found so far
+    private final Diagnostics diagnostics;
 
     // Return type of function we are checking
     private Type returnType;
 
+    // Type of every expression checked so far
+    private ExpTypes types;
+
+    // Whether the functions may be checked on several threads
+    private boolean parallel = true;
+
     // Share type constants
     public final Type BOOL   = new Type_bool();
     public final Type INT    = new Type_int();
     public final Type DOUBLE = new Type_double();
     public final Type VOID   = new Type_void();
 
+    // Type of an expression with an error in it, see infer
+    public final Type ERROR  = new Type_error();
+
+    public TypeChecker() {
+        this(new Symbols());
+    }
+
+    public TypeChecker(Symbols symbols) {
+        this(symbols, new Diagnostics());
+    }
+
+    public TypeChecker(Symbols symbols, Diagnostics diagnostics) {
+        this.symbols = symbols;
+        this.diagnostics = diagnostics;
+    }
+
+    public void setParallel(boolean parallel) {
+        this.parallel = parallel;
+    }
+
+    // a checker for one function of the program that program is checking,
+    // with the signature shared and everything else of its own
+    private TypeChecker(TypeChecker program) {
+        this.symbols = program.symbols;
+        this.diagnostics = program.diagnostics.part();
+        this.sig = program.sig;
+        this.types = new ExpTypes();
+    }
+
     // Entry point
 
-    public void typeCheck(Program p) {
+    /**
+     * checks the program and returns the type of each of its expressions;
+     * every error is added to the diagnostics, and if there are any a
+     * TypeException with the first one is thrown at the end
+     */
+    public ExpTypes typeCheck(Program p) {
+        types = new ExpTypes();
         p.accept(new ProgramVisitor(), null);
+        if (diagnostics.hasErrors()) {
+            String first = diagnostics.errors().get(0);
+            throw new TypeException(diagnostics.count() == 1 ? first
+                    : first + " (and " + (diagnostics.count() - 1) + " more)");
+        }
+        return types;
     }
 
     ////////////////////////////// Program //////////////////////////////
@@ -35,7 +89,7 @@ public class TypeChecker {
         public Void visit(CPP.Absyn.PDefs p, Void arg)
         {
             // Put primitive functions into signature
-            sig = new TreeMap<String,FunType>();
+            sig = new HashMap<String,FunType>();
             sig.put("printInt"   , new FunType(VOID, singleArg(INT)));
             sig.put("readInt"    , new FunType(INT, new ListArg()));
 
@@ -46,31 +100,48 @@ public class TypeChecker {
             // Extend signature by all the definitions
             for (Def x: p.listdef_) {
                 DFun d = (DFun)x;
-                // make sure x is not already in the signature.
+                // make sure x is not already in the signature,
+                // calls go to the first one
                 if (sig.get(d.id_) != null)
-                    throw new TypeException("function " + d.id_ + " has already been declared");
-
-                sig.put(d.id_, new FunType(d.type_, d.listarg_));
+                    diagnostics.error(d, "function " + d.id_ + " has already been declared");
+                else
+                    sig.put(d.id_, new FunType(d.type_, d.listarg_));
             }
 
-            // Check definitions
-            for (Def x: p.listdef_) {
-                returnType = sig.get(((DFun)x).id_).returnType;
-                x.accept(new DefVisitor(), arg);
+            // Check definitions, all of them even after an error. They
+            // only share the signature, so every function is checked on
+            // its own, maybe on another thread, and its types and errors
+            // are added in the order of the functions
+            List<TypeChecker> checked = PerFunction.map(p.listdef_, parallel, d -> {
+                TypeChecker function = new TypeChecker(TypeChecker.this);
+                d.accept(function.new DefVisitor(), arg);
+                return function;
+            });
+            for (TypeChecker function: checked) {
+                types.putAll(function.types);
+                diagnostics.addAll(function.diagnostics);
             }
 
 
             FunType ft = sig.get("main");
             if (ft == null)
-                throw new TypeException("main function is missing");
+                diagnostics.error(null, "main function is missing");
             else if(!ft.returnType.equals(INT))
-                throw new TypeException("main have to be int");
+                diagnostics.error(definition(p, "main"), "main have to be int");
             else if (!ft.args.isEmpty())
-                throw new TypeException("main function can not have argument");
+                diagnostics.error(definition(p, "main"), "main function can not have argument");
             return null;
         }
     }
 
+    // the first definition of function id
+    private DFun definition (PDefs p, String id) {
+        for (Def x: p.listdef_) {
+            if (((DFun)x).id_.equals(id)) return (DFun)x;
+        }
+        return null;
+    }
+
     public ListArg singleArg (Type t) {
         ListArg l = new ListArg();
         l.add(new ADecl(t, "x"));
@@ -85,8 +156,7 @@ public class TypeChecker {
         {
             // set return type and initial context
             returnType = p.type_;
-            cxt = new LinkedList();
-            cxt.add(new TreeMap());
+            cxt = new ScopedMap<>(symbols);
 
             // add all function parameters to context
             for (Arg a: p.listarg_) {
@@ -95,7 +165,7 @@ public class TypeChecker {
 
             // check function statements
             for (Stm s: p.liststm_) {
-                s.accept(new StmVisitor(), arg);
+                checkStm(s, arg);
             }
 
             return null;
@@ -109,18 +179,32 @@ public class TypeChecker {
     {
         public Void visit(CPP.Absyn.ADecl p, Void arg)
         {
-            newVar(p.id_, p.type_);
+            try {
+                newVar(p.id_, p.type_);
+            } catch (TypeException e) {
+                diagnostics.error(p, e.getMessage());
+            }
             return null;
         }
     }
 
     ////////////////////////////// Statement //////////////////////////////
 
+    // checks s, an error ends the check of s but not of what comes after it
+    private void checkStm(Stm s, Void arg) {
+        int before = diagnostics.count();
+        try {
+            s.accept(new StmVisitor(), arg);
+        } catch (TypeException e) {
+            if (diagnostics.count() == before) diagnostics.error(s, e.getMessage());
+        }
+    }
+
     public class StmVisitor implements Stm.Visitor<Void,Void>
     {
         public Void visit(CPP.Absyn.SExp p, Void arg)
         {
-            Type t = p.exp_.accept(new ExpVisitor(), arg);
+            infer(p.exp_, arg);
             return null;
         }
 
@@ -135,52 +219,60 @@ public class TypeChecker {
         // E.g. "int x = 1";
         public Void visit(CPP.Absyn.SInit p, Void arg)
         {
-            check(p.type_, p.exp_.accept(new ExpVisitor(), arg));
+            // x is declared even if the value is wrong, so that its uses
+            // are checked
+            Type t = infer(p.exp_, arg);
+            if (!isAssignable(p.type_, t))
+                error(p, t, "Expected type " + name(p.type_) + ", but found type " + name(t));
             newVar(p.id_, p.type_);
             return null;
         }
 
         public Void visit(CPP.Absyn.SReturn p, Void arg)
         {
-            Type t1 = p.exp_.accept(new ExpVisitor(),arg);
-            if(!t1.equals(returnType))
-                throw new TypeException("Function must have return value with the same type");
+            Type t1 = infer(p.exp_, arg);
+            if(!isAssignable(returnType, t1))
+                error(p, t1, "Function must have return value with the same type");
 
             return null;
         }
 
         public Void visit(CPP.Absyn.SWhile p, Void arg)
         {
-            Type t1= p.exp_.accept(new ExpVisitor(),arg);
+            Type t1= infer(p.exp_, arg);
             if(!t1.equals(BOOL))
-                throw new TypeException("While state must have Boolean expression");
-            return null;
+                error(p, t1, "While state must have Boolean expression");
 
+            // the body is a scope of its own, like the branches of an if
+            newBlock();
+            checkStm(p.stm_, arg);
+            popBlock();
+            return null;
         }
 
         // E.g. int x; { int x = 1; x++; }
         public Void visit(CPP.Absyn.SBlock p, Void arg)
         {
             newBlock();
-            for (Stm s: p.liststm_) s.accept(new StmVisitor(), arg);
+            for (Stm s: p.liststm_) checkStm(s, arg);
             popBlock();
             return null;
         }
 
         public Void visit(CPP.Absyn.SIfElse p, Void arg)
         {
-            Type t1= p.exp_.accept(new ExpVisitor(),arg);
+            Type t1= infer(p.exp_, arg);
             if(!t1.equals(BOOL)) {
-                throw new TypeException("If Condition must have Boolean expression");
+                error(p, t1, "If Condition must have Boolean expression");
             }
 
             // secure the scope of if and else
             newBlock();
-            p.stm_1.accept(new StmVisitor(), arg);
+            checkStm(p.stm_1, arg);
             popBlock();
 
             newBlock();
-            p.stm_2.accept(new StmVisitor(), arg);
+            checkStm(p.stm_2, arg);
             popBlock();
 
             return null;
@@ -189,6 +281,22 @@ public class TypeChecker {
 
     ////////////////////////////// Expression //////////////////////////////
 
+    // the type of an expression, which is also kept for the compiler.
+    // An error makes it the error type; it is reported here unless an
+    // error inside e was, since then it only follows from that one
+    private Type infer(Exp e, Void arg) {
+        int before = diagnostics.count();
+        Type t;
+        try {
+            t = e.accept(new ExpVisitor(), arg);
+        } catch (TypeException ex) {
+            if (diagnostics.count() == before) diagnostics.error(e, ex.getMessage());
+            t = ERROR;
+        }
+        types.put(e, t);
+        return t;
+    }
+
     public class ExpVisitor implements Exp.Visitor<Type,Void>
     {
 
@@ -228,7 +336,7 @@ public class TypeChecker {
             int i = 0;
             for (Exp e: p.listexp_) {
                 ADecl a = (ADecl)(ft.args.get(i));
-                check(a.type_, e.accept(new ExpVisitor(), arg));
+                check(a.type_, infer(e, arg));
                 i++;
             }
             return ft.returnType;
@@ -239,22 +347,22 @@ public class TypeChecker {
         // x++
         public Type visit(CPP.Absyn.EPostIncr p, Void arg)
         {
-            if(p.exp_ instanceof EId) return numericType(p.exp_.accept(new ExpVisitor(), arg));
+            if(p.exp_ instanceof EId) return numericType(infer(p.exp_, arg));
             throw new TypeException("Decrement operation needs variable");
         }
         public Type visit(CPP.Absyn.EPostDecr p, Void arg)
         {
-            if(p.exp_ instanceof EId) return numericType(p.exp_.accept(new ExpVisitor(), arg));
+            if(p.exp_ instanceof EId) return numericType(infer(p.exp_, arg));
             throw new TypeException("Decrement operation needs variable");
         }
         public Type visit(CPP.Absyn.EPreIncr p, Void arg)
         {
-            if(p.exp_ instanceof EId) return numericType(p.exp_.accept(new ExpVisitor(), arg));
+            if(p.exp_ instanceof EId) return numericType(infer(p.exp_, arg));
             throw new TypeException("Decrement operation needs variable");
         }
         public Type visit(CPP.Absyn.EPreDecr p, Void arg)
         {
-            if(p.exp_ instanceof EId) return numericType(p.exp_.accept(new ExpVisitor(), arg));
+            if(p.exp_ instanceof EId) return numericType(infer(p.exp_, arg));
             throw new TypeException("Decrement operation needs variable");
         }
 
@@ -262,17 +370,14 @@ public class TypeChecker {
 
         public Type visit(CPP.Absyn.ETimes p, Void arg)
         {
-            Type t1=p.exp_1.accept(new ExpVisitor(), arg);
-            Type t2=p.exp_2.accept(new ExpVisitor(), arg);
+            Type t1=infer(p.exp_1, arg);
+            Type t2=infer(p.exp_2, arg);
 
-            if(!t1.equals(t2)) {
+            if(!t1.equals(t2) && !(isNumeric(t1) && isNumeric(t2))) {
                 throw new TypeException("Multiplication requires operands with the same type");
-            } else if(t1.equals(INT) || t1.equals(DOUBLE)) {
-                if(t1.equals(INT)) {
-                    return INT;
-                } else {
-                    return DOUBLE;
-                }
+            } else if(isNumeric(t1)) {
+                // an int operand is promoted to double
+                return promote(t1, t2);
             }else{
                 throw new TypeException("* requires both operands to be int or double");
             }
@@ -280,33 +385,27 @@ public class TypeChecker {
         }
         public Type visit(CPP.Absyn.EDiv p, Void arg)
         {
-            Type t1=p.exp_1.accept(new ExpVisitor(), arg);
-            Type t2=p.exp_2.accept(new ExpVisitor(), arg);
+            Type t1=infer(p.exp_1, arg);
+            Type t2=infer(p.exp_2, arg);
 
-            if(!t1.equals(t2)) {
+            if(!t1.equals(t2) && !(isNumeric(t1) && isNumeric(t2))) {
                 throw new TypeException("Division requires operands with the same type");
-            } else if(t1.equals(INT) || t1.equals(DOUBLE)) {
-                if(t1.equals(INT)) {
-                    return INT;
-                } else {
-                    return DOUBLE;
-                }
+            } else if(isNumeric(t1)) {
+                // an int operand is promoted to double
+                return promote(t1, t2);
             }else{
                 throw new TypeException("/ requires both operands to be int or double");
             }
         }
         public Type visit(CPP.Absyn.EPlus p, Void arg)
         {
-            Type t1=p.exp_1.accept(new ExpVisitor(), arg);
-            Type t2=p.exp_2.accept(new ExpVisitor(), arg);
-            if(!t1.equals(t2)) {
+            Type t1=infer(p.exp_1, arg);
+            Type t2=infer(p.exp_2, arg);
+            if(!t1.equals(t2) && !(isNumeric(t1) && isNumeric(t2))) {
                 throw new TypeException("Addition requires operands with the same type");
-            } else if(t1.equals(INT) || t1.equals(DOUBLE)) {
-                if(t1.equals(INT)) {
-                    return INT;
-                } else {
-                    return DOUBLE;
-                }
+            } else if(isNumeric(t1)) {
+                // an int operand is promoted to double
+                return promote(t1, t2);
             }else{
                 throw new TypeException("+ requires both operands to be int or double");
             }
@@ -315,17 +414,14 @@ public class TypeChecker {
 
         public Type visit(CPP.Absyn.EMinus p, Void arg)
         {
-            Type t1=p.exp_1.accept(new ExpVisitor(), arg);
-            Type t2=p.exp_2.accept(new ExpVisitor(), arg);
+            Type t1=infer(p.exp_1, arg);
+            Type t2=infer(p.exp_2, arg);
 
-            if(!t1.equals(t2)) {
+            if(!t1.equals(t2) && !(isNumeric(t1) && isNumeric(t2))) {
                 throw new TypeException("Subtraction requires operands with the same type");
-            } else if(t1.equals(INT) || t1.equals(DOUBLE)) {
-                if(t1.equals(INT)) {
-                    return INT;
-                } else {
-                    return DOUBLE;
-                }
+            } else if(isNumeric(t1)) {
+                // an int operand is promoted to double
+                return promote(t1, t2);
             }else{
                 throw new TypeException("- requires both operands to be int or double");
             }
@@ -334,12 +430,12 @@ public class TypeChecker {
         // Comparison operators
         public Type visit(CPP.Absyn.ELt p, Void arg)
         {
-            Type t1=p.exp_1.accept(new ExpVisitor(), arg);
-            Type t2=p.exp_2.accept(new ExpVisitor(), arg);
+            Type t1=infer(p.exp_1, arg);
+            Type t2=infer(p.exp_2, arg);
 
-            if (!t1.equals(t2)) {
+            if (!t1.equals(t2) && !(isNumeric(t1) && isNumeric(t2))) {
                 throw new TypeException("Both of the operands have to be the same type!");
-            } else if (t1.equals(INT) || t1.equals(DOUBLE)) {
+            } else if (isNumeric(t1)) {
                 return BOOL;
             } else {
                 throw new TypeException("< requires both operands to be int or double");
@@ -347,12 +443,12 @@ public class TypeChecker {
         }
 
         public Type visit(CPP.Absyn.EGt p, Void arg) {
-            Type t1 = p.exp_1.accept(new ExpVisitor(), arg);
-            Type t2 = p.exp_2.accept(new ExpVisitor(), arg);
+            Type t1 = infer(p.exp_1, arg);
+            Type t2 = infer(p.exp_2, arg);
 
-            if (!t1.equals(t2)) {
+            if (!t1.equals(t2) && !(isNumeric(t1) && isNumeric(t2))) {
                 throw new TypeException("Both of the operands have to be the same type!");
-            } else if (t1.equals(INT) || t1.equals(DOUBLE)) {
+            } else if (isNumeric(t1)) {
                 return BOOL;
             } else {
                 throw new TypeException("> requires both operands to be int or double");
@@ -361,12 +457,12 @@ public class TypeChecker {
 
         public Type visit(CPP.Absyn.ELtEq p, Void arg)
         {
-            Type t1=p.exp_1.accept(new ExpVisitor(), arg);
-            Type t2=p.exp_2.accept(new ExpVisitor(), arg);
+            Type t1=infer(p.exp_1, arg);
+            Type t2=infer(p.exp_2, arg);
 
-            if (!t1.equals(t2)) {
+            if (!t1.equals(t2) && !(isNumeric(t1) && isNumeric(t2))) {
                 throw new TypeException("Both of the operands have to be the same type!");
-            } else if (t1.equals(INT) || t1.equals(DOUBLE)) {
+            } else if (isNumeric(t1)) {
                 return BOOL;
             } else {
                 throw new TypeException("<= requires both operands to be int or double");
@@ -375,12 +471,12 @@ public class TypeChecker {
 
         public Type visit(CPP.Absyn.EGtEq p, Void arg)
         {
-            Type t1=p.exp_1.accept(new ExpVisitor(), arg);
-            Type t2=p.exp_2.accept(new ExpVisitor(), arg);
+            Type t1=infer(p.exp_1, arg);
+            Type t2=infer(p.exp_2, arg);
 
-            if (!t1.equals(t2)) {
+            if (!t1.equals(t2) && !(isNumeric(t1) && isNumeric(t2))) {
                 throw new TypeException("Both of the operands have to be the same type!");
-            } else if (t1.equals(INT) || t1.equals(DOUBLE)) {
+            } else if (isNumeric(t1)) {
                 return BOOL;
             } else {
                 throw new TypeException(">= requires both operands to be int or double");
@@ -391,10 +487,10 @@ public class TypeChecker {
 
         public Type visit(CPP.Absyn.EEq p, Void arg)
         {
-            Type t1=p.exp_1.accept(new ExpVisitor(), arg);
-            Type t2=p.exp_2.accept(new ExpVisitor(), arg);
+            Type t1=infer(p.exp_1, arg);
+            Type t2=infer(p.exp_2, arg);
 
-            if(!t1.equals(t2))
+            if(!t1.equals(t2) && !(isNumeric(t1) && isNumeric(t2)))
                 throw new TypeException("Both of the operands have to be the same type!");
             else if(t1.equals(INT)|| t1.equals(DOUBLE) || t1.equals(BOOL))
                 return BOOL;
@@ -403,10 +499,10 @@ public class TypeChecker {
         }
 
         public Type visit(CPP.Absyn.ENEq p, Void arg) {
-            Type t1 = p.exp_1.accept(new ExpVisitor(), arg);
-            Type t2 = p.exp_2.accept(new ExpVisitor(), arg);
+            Type t1 = infer(p.exp_1, arg);
+            Type t2 = infer(p.exp_2, arg);
 
-            if(!t1.equals(t2))
+            if(!t1.equals(t2) && !(isNumeric(t1) && isNumeric(t2)))
                 throw new TypeException("Both of the operands have to be the same type!");
             else if(t1.equals(INT)|| t1.equals(DOUBLE) || t1.equals(BOOL))
                 return BOOL;
@@ -418,8 +514,8 @@ public class TypeChecker {
         // Logic operators
 
         public Type visit(CPP.Absyn.EAnd p, Void arg) {
-            Type t1 = p.exp_1.accept(new ExpVisitor(), arg);
-            Type t2 = p.exp_2.accept(new ExpVisitor(), arg);
+            Type t1 = infer(p.exp_1, arg);
+            Type t2 = infer(p.exp_2, arg);
 
             if (!t1.equals(BOOL) && !t2.equals(BOOL))
                 throw new TypeException("&& requires both operands to be Boolean!");
@@ -429,8 +525,8 @@ public class TypeChecker {
 
         public Type visit(CPP.Absyn.EOr p, Void arg)
         {
-            Type t1=p.exp_1.accept(new ExpVisitor(), arg);
-            Type t2=p.exp_2.accept(new ExpVisitor(), arg);
+            Type t1=infer(p.exp_1, arg);
+            Type t2=infer(p.exp_2, arg);
 
             if(!t1.equals(BOOL)&& !t2.equals(BOOL))
                 throw new TypeException("|| requires both operands to be Boolean!");
@@ -441,12 +537,12 @@ public class TypeChecker {
         // Assignment
         public Type visit(CPP.Absyn.EAss p, Void arg)
         {
-            Type t1=p.exp_1.accept(new ExpVisitor(), arg);
+            Type t1=infer(p.exp_1, arg);
             if(t1.equals(null)) {
                 throw new TypeException("Assignment error. Unidentified type of assignment target!");
             }else{
-                Type t2 = p.exp_2.accept(new ExpVisitor(), arg);
-                if(!t1.equals(t2))
+                Type t2 = infer(p.exp_2, arg);
+                if(!isAssignable(t1, t2))
                     throw new TypeException ("Assignment operation requires " +
                             "both variable and values with the same type");
                 else
@@ -459,31 +555,22 @@ public class TypeChecker {
     ///////////////////////// Context handling /////////////////////////
 
     public void newVar (String x, Type t) {
-        // Get the top context block
-        Map<String,Type> m = cxt.get(0);
-        // Check that the variable is not declared already
-        if (m.containsKey(x))
+        // Check that the variable is not declared already in the top block
+        if (cxt.isLocal(x))
             throw new TypeException("duplicate variable binding " + x);
         // Add the binding
-        m.put(x, t);
+        cxt.put(x, t);
     }
 
     public void newBlock() {
-        cxt.add(0, new TreeMap());
+        cxt.enterScope();
     }
     public void popBlock() {
-        cxt.remove(0);
+        cxt.exitScope();
     }
 
     public Type lookupVar(String x) {
-        Type t = null;
-        for (Map<String,Type> m : cxt) {
-            t = m.get(x);
-            if (t != null) {
-                return t;
-            }
-        }
-
+        Type t = cxt.get(x);
         if(t == null) {
             throw new TypeException("unbound variable " + x);
         }
@@ -492,11 +579,40 @@ public class TypeChecker {
 
     ////////////////////////////// Exp / Type shape //////////////////////////////
 
+    // reports an error about node, unless the type found is the error
+    // type, which has been reported where it came from
+    private void error (Object node, Type found, String message) {
+        if (!found.equals(ERROR)) diagnostics.error(node, message);
+    }
+
     // Expected type: t
     // Inferred type: u
     public void check (Type t, Type u) {
-        if (!t.equals(u))
-            throw new TypeException("Expected type " + t + ", but found type " + u);
+        if (!isAssignable(t, u))
+            throw new TypeException("Expected type " + name(t) + ", but found type " + name(u));
+    }
+
+    // the type as it is written in a program, for error messages
+    public String name (Type t) {
+        if (t instanceof Type_int) return "int";
+        if (t instanceof Type_bool) return "bool";
+        if (t instanceof Type_double) return "double";
+        if (t instanceof Type_void) return "void";
+        return t.toString();
+    }
+
+    // an int can be used where a double is expected
+    public boolean isAssignable (Type t, Type u) {
+        return t.equals(u) || (t.equals(DOUBLE) && u.equals(INT));
+    }
+
+    public boolean isNumeric (Type t) {
+        return t.equals(INT) || t.equals(DOUBLE);
+    }
+
+    // type of arithmetic on two numbers
+    public Type promote (Type t1, Type t2) {
+        return t1.equals(DOUBLE) || t2.equals(DOUBLE) ? DOUBLE : INT;
     }
 
     public Type numericType (Type t) {
@@ -506,14 +622,61 @@ public class TypeChecker {
     }
     public void equalTypes (Type t1, Type t2) {
         if (!t1.equals(t2))
-            throw new TypeException("expected types " + t1 + " and " + t2 + " to be equal");
+            throw new TypeException("expected types " + name(t1) + " and " + name(t2) + " to be equal");
+    }
+
+}
+
+
+
+/**
+ * The type of an expression that has an error in it. It equals no other
+ * type, so nothing accepts it, and errors it causes are not reported.
+ */
+@SuppressWarnings("serial")
+class Type_error extends Type {
+
+    public <R,A> R accept(Type.Visitor<R,A> v, A arg) {
+        throw new RuntimeException("the error type is not a type of the language");
+    }
+
+    public boolean equals(Object o) {
+        return o instanceof Type_error;
     }
 
+    public int hashCode() {
+        return 0;
+    }
+
+    public String toString() {
+        return "error";
+    }
 }
 
 
 
+/**
+ * The type of every expression of a checked program, by node identity,
+ * so that two equal nodes like the x in x + x each have their own entry.
+ * An int promoted to double keeps its own type int; the expression around
+ * it has type double.
+ */
+class ExpTypes {
 
+    private final Map<Exp,Type> types = new IdentityHashMap<>();
 
+    void put (Exp e, Type t) {
+        types.put(e, t);
+    }
 
+    void putAll (ExpTypes other) {
+        types.putAll(other.types);
+    }
 
+    public Type typeOf (Exp e) {
+        Type t = types.get(e);
+        if (t == null)
+            throw new RuntimeException("no type for " + e.getClass().getSimpleName() + ", it was not type checked");
+        return t;
+    }
+}
@@ -1,43 +1,227 @@
 import CPP.Yylex;
-import CPP.parser;
 
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
 
 public class lab3 {
     public static void main(String args[]) {
-        if (args.length != 1) {
-            System.err.println("Usage: lab3 <SourceFile>");
-            System.exit(1);
+        if (args.length > 0 && args[0].equals("--server")) {
+            CompileServer.main(args);
+            return;
         }
 
+        int status = execute(args, Paths.get(""), null, System.out, System.err, true);
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    /**
+     * Does what the lab3 command does for the given arguments and returns
+     * its exit status. Relative paths are taken from dir; if source is not
+     * null it is compiled instead of the contents of the source file.
+     */
+    public static int execute(String args[], Path dir, String source,
+                              PrintStream out, PrintStream err, boolean allowRun) {
+        Options opts = new Options();
+        List<String> paths = new ArrayList<>();
+        boolean usage = false;
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            if (a.equals("--jasmin")) {
+                opts.dumpJasmin = true;
+            } else if (a.equals("--echo")) {
+                opts.echo = true;
+            } else if (a.equals("--run")) {
+                opts.run = true;
+            } else if (a.equals("--jobs") && i + 1 < args.length) {
+                try {
+                    opts.jobs = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    usage = true;
+                }
+            } else if (a.equals("--peephole") && i + 1 < args.length) {
+                String rules = args[++i];
+                opts.peephole = new ArrayList<>();
+                if (!rules.equals("none")) opts.peephole.addAll(Arrays.asList(rules.split(",")));
+                if (!Peephole.RULES.keySet().containsAll(opts.peephole)) usage = true;
+            } else if (a.equals("--inline-limit") && i + 1 < args.length) {
+                try {
+                    opts.inlineLimit = Integer.parseInt(args[++i]);
+                } catch (NumberFormatException e) {
+                    usage = true;
+                }
+            } else if (a.equals("--peephole-stats")) {
+                opts.peepholeStats = true;
+            } else if (a.equals("-O0") || a.equals("-O1") || a.equals("-O2")) {
+                opts.optLevel = a.charAt(2) - '0';
+            } else if (a.equals("--time-passes")) {
+                opts.timePasses = true;
+            } else if (a.startsWith("--") || a.startsWith("-O")) {
+                usage = true;
+            } else {
+                paths.addAll(expand(a, dir));
+            }
+        }
+        if (usage || paths.isEmpty() || opts.jobs < 1 || (source != null && paths.size() > 1)) {
+            err.println("Usage: lab3 [--jasmin] [--echo] [--run] [--jobs <n>] [-O0|-O1|-O2]"
+                    + " [--peephole <rule,...|none>] [--peephole-stats] [--inline-limit <n>]"
+                    + " [--time-passes] <SourceFile>...");
+            err.println("Peephole rules: " + String.join(",", Peephole.RULES.keySet()));
+            return 1;
+        }
+        if (opts.run && !allowRun) {
+            err.println("--run is not supported here");
+            return 1;
+        }
+
+        if (paths.size() == 1) {
+            return compile(paths.get(0), opts, dir, source, out, err);
+        }
+        if (opts.run) {
+            err.println("--run needs a single source file");
+            return 1;
+        }
+        return BatchCompiler.compileAll(paths, opts, dir, out, err);
+    }
+
+    /**compiles one source file, and runs it with opts.run*/
+    public static int compile(String path, Options opts,
+                              Path dir, String source, PrintStream out, PrintStream err) {
         Yylex l = null;
+        Diagnostics diagnostics = null;
+        String className = null;
+        byte[] bytes = null;
+        PhaseTimes times = opts.timePasses ? new PhaseTimes() : PhaseTimes.OFF;
         try {
-            String path = args[0];
-            l = new Yylex(new FileReader(path));
-            parser p = new parser(l);
+            Reader in = source != null
+                    ? new StringReader(source)
+                    : new FileReader(dir.resolve(path).toFile());
+            l = new Yylex(in);
+            LocatingParser p = new LocatingParser(opts.timePasses ? new TimedScanner(l, times) : l);
+            p.errors = err;
+            times.start("parse");
             CPP.Absyn.Program parse_tree = p.pProgram();
-            new TypeChecker().typeCheck(parse_tree);
-            new Compiler().compile(FilenameUtils.getBaseName(path), parse_tree);
+            times.stop();
+            times.start("typecheck");
+            diagnostics = new Diagnostics(p.lines);
+            TypeChecker checker = new TypeChecker(l.symbols(), diagnostics);
+            // --jobs 1 keeps every file on one thread, in both passes
+            checker.setParallel(opts.jobs > 1);
+            ExpTypes types = checker.typeCheck(parse_tree);
+            times.stop();
+            Peephole peephole = new Peephole(opts.peephole);
+            Compiler compiler = new Compiler(opts.dumpJasmin, PassManager.forLevel(opts.optLevel, peephole));
+            // both are only done at -O2
+            compiler.setTailCalls(opts.optLevel >= 2);
+            compiler.setInlineLimit(opts.optLevel >= 2 ? opts.inlineLimit : 0);
+            compiler.setSymbols(l.symbols());
+            compiler.setParallel(opts.jobs > 1);
+            compiler.setPhaseTimes(times);
+            if (opts.run) {
+                // keep the class in memory, it is run below
+                bytes = compiler.assemble(FilenameUtils.getBaseName(path), parse_tree, types);
+                className = compiler.getClassName();
+            } else {
+                compiler.compile(FilenameUtils.getBaseName(path), parse_tree, types, dir, opts.echo ? out : null);
+            }
+            if (opts.peepholeStats) peephole.report(err);
+            times.report(err);
 
         } catch (TypeException e) {
-            System.out.println("TYPE ERROR");
-            System.err.println(e.toString());
-            System.exit(1);
+            out.println("TYPE ERROR");
+            // every error the checker found, not only the first one
+            if (diagnostics != null && diagnostics.hasErrors()) diagnostics.report(err);
+            else err.println(e.toString());
+            return 1;
         } catch (RuntimeException e) {
-            // System.out.println("RUNTIME ERROR");
-            System.err.println(e.toString());
-            System.exit(-1);
+            // out.println("RUNTIME ERROR");
+            err.println(e.toString());
+            return -1;
         } catch (IOException e) {
-            System.err.println(e.toString());
-            System.exit(1);
+            err.println(e.toString());
+            return 1;
         } catch (Throwable e) {
-            System.out.println("SYNTAX ERROR");
-            System.out.println("At line " + String.valueOf(l.line_num())
+            out.println("SYNTAX ERROR");
+            out.println("At line " + String.valueOf(l.line_num())
                        + ", near \"" + l.buff() + "\" :");
-            System.out.println("     " + e.getMessage());
-            e.printStackTrace();
-            System.exit(1);
+            out.println("     " + e.getMessage());
+            e.printStackTrace(err);
+            return 1;
+        }
+
+        if (opts.run) {
+            try {
+                InMemoryRunner.run(className, bytes);
+            } catch (Throwable e) {
+                // the compiled program failed, like an uncaught exception in java
+                err.println(e.toString());
+                return 1;
+            }
         }
+        return 0;
     }
+
+    /**expands a pattern like dir/**.cc, for shells that pass it on unexpanded*/
+    static List<String> expand(String arg, Path dir) {
+        int glob = -1;
+        for (int i = 0; i < arg.length() && glob < 0; i++) {
+            if ("*?[{".indexOf(arg.charAt(i)) >= 0) glob = i;
+        }
+        if (glob < 0) return Collections.singletonList(arg);
+
+        int slash = arg.lastIndexOf('/', glob);
+        String base = slash < 0 ? "" : slash == 0 ? "/" : arg.substring(0, slash);
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + arg);
+        Path root = dir.resolve(base);
+        List<String> paths = new ArrayList<>();
+        try (Stream<Path> files = Files.walk(root)) {
+            files.filter(Files::isRegularFile).forEach(f -> {
+                Path p = Paths.get(base).resolve(root.relativize(f));
+                if (matcher.matches(p)) paths.add(p.toString());
+            });
+        } catch (IOException e) {
+            // reported as a missing file below
+        }
+        if (paths.isEmpty()) return Collections.singletonList(arg);
+        Collections.sort(paths);
+        return paths;
+    }
+}
+
+
+
+/**
+ * Command line options of lab3 that say how each file is compiled.
+ */
+class Options {
+    boolean dumpJasmin = false;
+    boolean echo = false;
+    boolean run = false;
+    int jobs = java.lang.Runtime.getRuntime().availableProcessors();
+
+    // names of the peephole rules to run
+    List<String> peephole = new ArrayList<>(Peephole.RULES.keySet());
+    boolean peepholeStats = false;
+
+    // largest function body to inline, in tree nodes
+    int inlineLimit = 40;
+
+    // 0 translates directly, 1 folds constants and runs the peephole
+    // rules, 2 runs every pass and does tail calls and inlining
+    int optLevel = 2;
+    boolean timePasses = false;
 }
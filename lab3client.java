@@ -0,0 +1,98 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Thin client for the compile server, used exactly like lab3.
+ * When no server is running, or with --run, it compiles in-process.
+ */
+public class lab3client {
+    public static void main(String args[]) {
+        Path socket = CompileServer.defaultSocket();
+        List<String> lab3Args = new ArrayList<>();
+        boolean stop = false;
+        boolean run = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--socket") && i + 1 < args.length) {
+                socket = Paths.get(args[++i]);
+            } else if (args[i].equals("--stop")) {
+                stop = true;
+            } else {
+                run |= args[i].equals("--run");
+                lab3Args.add(args[i]);
+            }
+        }
+
+        if (run) {
+            // the program has to run with our stdin and stdout
+            lab3.main(lab3Args.toArray(new String[0]));
+            return;
+        }
+
+        SocketChannel channel;
+        try {
+            channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+            channel.connect(UnixDomainSocketAddress.of(socket));
+        } catch (IOException e) {
+            if (stop) return;
+            // no server, do the work ourselves
+            lab3.main(lab3Args.toArray(new String[0]));
+            return;
+        }
+
+        int status;
+        try {
+            InputStream in = new BufferedInputStream(Channels.newInputStream(channel));
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+
+            StringBuilder request = new StringBuilder();
+            if (stop) {
+                request.append("stop\n");
+            } else {
+                request.append("cwd ").append(Paths.get("").toAbsolutePath()).append('\n');
+                for (String a: lab3Args) {
+                    request.append("arg ").append(a).append('\n');
+                }
+                request.append("end\n");
+            }
+            out.write(request.toString().getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            System.out.write(readBlock(in, "out "));
+            System.out.flush();
+            System.err.write(readBlock(in, "err "));
+            System.err.flush();
+            status = Integer.parseInt(expect(CompileServer.readLine(in), "exit "));
+            channel.close();
+        } catch (IOException e) {
+            System.err.println(e.toString());
+            status = 1;
+        }
+
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    private static byte[] readBlock(InputStream in, String header) throws IOException {
+        int n = Integer.parseInt(expect(CompileServer.readLine(in), header));
+        return CompileServer.readBytes(in, n);
+    }
+
+    private static String expect(String line, String header) throws IOException {
+        if (!line.startsWith(header))
+            throw new IOException("unexpected answer from server: " + line);
+        return line.substring(header.length());
+    }
+}
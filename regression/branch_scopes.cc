@@ -0,0 +1,17 @@
+// A declaration that is a whole while body or if branch is a scope of
+// its own, so x after them is still the outer x.
+int f(int x) {
+  int i = 0;
+  while (i++ < 2) int x = 5;
+  printInt(x);
+  if (i > 0) int x = 6; else double x = 7.0;
+  printInt(x);
+  if (i < 0) int x = 8; else int x = 9;
+  printInt(x);
+  return x;
+}
+
+int main() {
+  printInt(f(1));
+  return 0;
+}
@@ -0,0 +1,20 @@
+// The first a+b of g is inside (a+b)*2, which -O2 replaces by the value
+// of t*2. w = a+b must not load a temporary that was never stored.
+int g(int a, int b) {
+  int c = 0;
+  int t = 0;
+  t = a + (c = b);
+  int u = t*2;
+  int v = (a+b)*2;
+  int w = a+b;
+  printInt(u);
+  printInt(v);
+  printInt(w);
+  printInt(c);
+  return 0;
+}
+
+int main() {
+  g(3, 4);
+  return 0;
+}
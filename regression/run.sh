@@ -0,0 +1,15 @@
+#!/bin/sh
+# Runs every program here at each optimization level and compares its
+# output with the .output file next to it. The classpath must have the
+# compiled compiler and the CUP runtime, like for lab3 itself.
+cd "$(dirname "$0")"
+status=0
+for cc in *.cc; do
+  for level in -O0 -O1 -O2; do
+    if ! java lab3 --run $level "$cc" 2>&1 | diff -q - "${cc%.cc}.output" >/dev/null; then
+      echo "FAIL $cc $level"
+      status=1
+    fi
+  done
+done
+exit $status